@@ -12,9 +12,6 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
-import java.net.MalformedURLException;
-import java.net.UnknownHostException;
-
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
  */
@@ -29,15 +26,19 @@ public class BrokerController {
         this.brokerService = BrokerService.createProxy(vertx, Constants.BROKER_SERVICE);
     }
 
+    /**
+     * Marks the broker as registered and leaves the notification of the broker to the outbox of the BrokerService,
+     * so neither the answer nor a broker that is down delays the other.
+     */
     public void register(long id, Handler<AsyncResult<JsonObject>> resultHandler){
 
         brokerManager.findById(id, findIdReply -> {
             if(findIdReply.succeeded()){
-                brokerService.subscribe(findIdReply.result().getString("url"), subscribeReply -> {
-                    if(subscribeReply.succeeded()) {
-                        LOGGER.info("Registration at broker successful.");
-                        brokerManager.register(id, registrationReply -> {
-                            if (registrationReply.succeeded()) {
+                brokerManager.register(id, registrationReply -> {
+                    if (registrationReply.succeeded()) {
+                        brokerService.subscribe(findIdReply.result().getString("url"), subscribeReply -> {
+                            if(subscribeReply.succeeded()) {
+                                LOGGER.info("Registration at broker scheduled.");
                                 JsonObject jO = new JsonObject()
                                         .put("info", new JsonObject()
                                                 .put("status", "success")
@@ -45,19 +46,18 @@ public class BrokerController {
                                         .put("data", registrationReply.result());
                                 resultHandler.handle(Future.succeededFuture(jO));
                             } else {
-                                //If this fails, the connector is registered to the broker, but  the broker is not marked registered in the database
-                                //therefore try to clean the state. If this fails, log the inconsistent state
-                                LOGGER.error(registrationReply.cause());
-                                brokerService.unsubscribe(findIdReply.result().getString("url"), reply -> {
+                                //the outbox could not be written, so revert the local state
+                                LOGGER.error(subscribeReply.cause());
+                                brokerManager.unregister(id, reply -> {
                                     if(reply.failed()){
-                                        LOGGER.error("INCONSISTENT STATE: Broker could not be unregistered at remote but was unregistered in database.");
+                                        LOGGER.error("INCONSISTENT STATE: Broker is registered in database but no registration was scheduled.");
                                     }
                                 });
                                 resultHandler.handle(Future.succeededFuture(registrationError()));
                             }
                         });
-                    }else{
-                        LOGGER.error(subscribeReply.cause());
+                    } else {
+                        LOGGER.error(registrationReply.cause());
                         resultHandler.handle(Future.succeededFuture(registrationError()));
                     }
                 });
@@ -87,30 +87,29 @@ public class BrokerController {
 
         brokerManager.findById(id, findIdReply -> {
             if(findIdReply.succeeded()){
-                brokerService.unsubscribe(findIdReply.result().getString("url"), unsubscribeReply -> {
-                    if(unsubscribeReply.succeeded()) {
-                        brokerManager.unregister(id, unregisterReply -> {
-                            if (unregisterReply.succeeded()) {
-                                LOGGER.info("Unregistration at broker successful.");
+                brokerManager.unregister(id, unregisterReply -> {
+                    if (unregisterReply.succeeded()) {
+                        brokerService.unsubscribe(findIdReply.result().getString("url"), unsubscribeReply -> {
+                            if(unsubscribeReply.succeeded()) {
+                                LOGGER.info("Unregistration at broker scheduled.");
                                 JsonObject jO = new JsonObject();
                                 jO.put("status", "success");
                                 jO.put("text", "Brokerabmeldung erfolgreich.");
                                 resultHandler.handle(Future.succeededFuture(jO));
                             } else {
-                                //If this fails, the connector is not registered to the broker, but the broker is marked registered in the database
-                                //therefore try to clean the state. If this fails, log the inconsistent state
-                                brokerService.subscribe(findIdReply.result().getString("url"), reply -> {
+                                //the outbox could not be written, so revert the local state
+                                LOGGER.error(unsubscribeReply.cause());
+                                brokerManager.register(id, reply -> {
                                     if(reply.failed()){
-                                        LOGGER.error("INCONSISTENT STATE: Broker could not be registered at remote but was registered in database.");
+                                        LOGGER.error("INCONSISTENT STATE: Broker is unregistered in database but no unregistration was scheduled.");
                                     }
                                 });
-                                LOGGER.error(unsubscribeReply.cause());
                                 resultHandler.handle(Future.succeededFuture(unregistrationError()));
                             }
                         });
                     }
                     else{
-                        LOGGER.error(unsubscribeReply.cause());
+                        LOGGER.error(unregisterReply.cause());
                         resultHandler.handle(Future.succeededFuture(unregistrationError()));
                     }
                 });
@@ -155,7 +154,7 @@ public class BrokerController {
     public void update(Handler<AsyncResult> resultHandler){
         brokerService.update( reply -> {
             if (reply.succeeded()) {
-                LOGGER.info("Updating of new connector information at brokers successful.");
+                LOGGER.info("Update of connector information at brokers scheduled.");
                 resultHandler.handle(Future.succeededFuture());
             } else {
                 LOGGER.error(reply.cause());
@@ -169,9 +168,7 @@ public class BrokerController {
             if(findIdReply.succeeded()) {
                 if (findIdReply.result().getString("status").equals(BrokerStatus.REGISTERED.name())) {
                     brokerService.unsubscribe(findIdReply.result().getString("url"), unsubscribeReply -> {
-                        if (unsubscribeReply.succeeded()
-                                || unsubscribeReply.cause().getClass().equals(MalformedURLException.class)
-                                || unsubscribeReply.cause().getClass().equals(UnknownHostException.class)) {
+                        if (unsubscribeReply.succeeded()) {
                             brokerManager.delete(id, deleteReply -> {
                                 if (deleteReply.succeeded()) {
                                     LOGGER.info("Broker successfully deleted.");
@@ -180,13 +177,14 @@ public class BrokerController {
                                     jO.put("text", "Löschen des Brokers erfolgreich.");
                                     resultHandler.handle(Future.succeededFuture(jO));
                                 } else {
-                                    //If this fails, the connector is not registered to the broker, but the broker is marked still in the database
-                                    //therefore try to clean the state. If this fails, log the inconsistent state
+                                    //the broker stays registered in the database, so schedule its registration again
+                                    LOGGER.error(deleteReply.cause());
                                     brokerService.subscribe(findIdReply.result().getString("url"), reply -> {
                                         if (reply.failed()) {
-                                            LOGGER.error("INCONSISTENT STATE: Broker could not be registered at remote but is registered in database.");
+                                            LOGGER.error("INCONSISTENT STATE: Broker is registered in database but its unregistration was scheduled.");
                                         }
                                     });
+                                    resultHandler.handle(Future.succeededFuture(unregistrationError()));
                                 }
                             });
                         } else {
@@ -5,18 +5,21 @@ import de.fraunhofer.fokus.ids.enums.FileType;
 import de.fraunhofer.fokus.ids.messages.ResourceRequest;
 import de.fraunhofer.fokus.ids.models.*;
 import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
-import de.fraunhofer.fokus.ids.persistence.entities.Dataset;
 import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
-import de.fraunhofer.fokus.ids.persistence.entities.serialization.DataSourceSerializer;
 import de.fraunhofer.fokus.ids.persistence.managers.DataAssetManager;
-import de.fraunhofer.fokus.ids.persistence.managers.DataSourceManager;
+import de.fraunhofer.fokus.ids.services.CachedConnector;
 import de.fraunhofer.fokus.ids.services.ConfigService;
 import de.fraunhofer.fokus.ids.services.IDSService;
+import de.fraunhofer.fokus.ids.services.VerifiedTokenCache;
+import de.fraunhofer.fokus.ids.services.datasourceAdapter.AdapterResponseStreamer;
+import de.fraunhofer.fokus.ids.services.datasourceAdapter.ArtifactCache;
 import de.fraunhofer.fokus.ids.services.datasourceAdapter.DataSourceAdapterService;
 import de.fraunhofer.fokus.ids.utils.models.IDSMessage;
 import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
 import de.fraunhofer.iais.eis.*;
 import io.vertx.core.*;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.json.jackson.DatabindCodec;
@@ -27,8 +30,8 @@ import org.apache.http.HttpEntity;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.ParseException;
 import java.util.Optional;
+import java.util.function.BiConsumer;
 
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -38,8 +41,8 @@ public class ConnectorController {
 	private Logger LOGGER = LoggerFactory.getLogger(ConnectorController.class.getName());
 	private IDSService idsService;
 	private DataAssetManager dataAssetManager;
-	private DataSourceManager dataSourceManager;
 	private DataSourceAdapterService dataSourceAdapterService;
+	private AdapterResponseStreamer adapterResponseStreamer;
     private FileUploadController fileUploadController;
     private AuthAdapterService authAdapterService;
     private ConfigService configService;
@@ -48,9 +51,9 @@ public class ConnectorController {
 		this.idsService = new IDSService(vertx);
 		this.authAdapterService = AuthAdapterService.createProxy(vertx, Constants.AUTHADAPTER_SERVICE);
 		this.dataAssetManager = new DataAssetManager();
-		this.dataSourceManager = new DataSourceManager();
 		this.fileUploadController = new FileUploadController(vertx);
 		this.dataSourceAdapterService = DataSourceAdapterService.createProxy(vertx, Constants.DATASOURCEADAPTER_SERVICE);
+		this.adapterResponseStreamer = new AdapterResponseStreamer(vertx);
 		this.configService = new ConfigService(vertx);
 		DatabindCodec.prettyMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
 	}
@@ -71,13 +74,13 @@ public class ConnectorController {
 				artifactResponsePromise.fail(reply.cause());
 			}
 		});
-		Promise<File> filePromise = Promise.promise();
-		Future<File> fileFuture = filePromise.future();
+		Promise<PayloadFile> filePromise = Promise.promise();
+		Future<PayloadFile> fileFuture = filePromise.future();
 		payload(id, extension, fileFuture);
 		idsService.handleDataMessage(header.getId(), artifactResponseFuture, fileFuture, id, resultHandler);
 	}
 
-	public void payload(long id, String extension, Handler<AsyncResult<File>> resultHandler) {
+	public void payload(long id, String extension, Handler<AsyncResult<PayloadFile>> resultHandler) {
 		buildDataAssetReturn(id, extension, reply -> {
 			if(reply.succeeded()){
 				resultHandler.handle(Future.succeededFuture(reply.result()));
@@ -88,7 +91,7 @@ public class ConnectorController {
 		});
 	}
 
-	private void buildDataAssetReturn(long id, String extension, Handler<AsyncResult<File>> resultHandler){
+	private void buildDataAssetReturn(long id, String extension, Handler<AsyncResult<PayloadFile>> resultHandler){
 		if(extension == null) {
 			payload(id, resultHandler);
 		}
@@ -112,7 +115,8 @@ public class ConnectorController {
 		if (input.isPresent() && input.get().getHeader().isPresent()) {
 			Message header = input.get().getHeader().get();
 			String token = "abc123";
-			authAdapterService.isAuthenticated(header.getSecurityToken() == null?token:header.getSecurityToken().getTokenValue(), authreply -> {
+			String securityToken = header.getSecurityToken() == null?token:header.getSecurityToken().getTokenValue();
+			VerifiedTokenCache.getInstance().verify(securityToken, verified -> authAdapterService.isAuthenticated(securityToken, verified::handle), authreply -> {
 				if (authreply.succeeded()) {
 					if (header instanceof DescriptionRequestMessage) {
 						multiPartAbout(header, resultHandler);
@@ -138,14 +142,14 @@ public class ConnectorController {
 	}
 
 	public void multiPartAbout(Message header, Handler<AsyncResult<HttpEntity>> resultHandler) {
-		Promise<Connector> connectorPromise = Promise.promise();
-		Future<Connector> connectorFuture = connectorPromise.future();
+		Promise<CachedConnector> connectorPromise = Promise.promise();
+		Future<CachedConnector> connectorFuture = connectorPromise.future();
 		Promise<Message> responsePromise = Promise.promise();
 		Future<Message> responseFuture = responsePromise.future();
 
 		configService.getConfiguration(reply -> {
 			if(reply.succeeded()) {
-				idsService.getConnector(reply.result(), connectorFuture);
+				idsService.getCachedConnector(reply.result(), connectorFuture);
 				idsService.getSelfDescriptionResponse(reply.result(), header.getId(), responseFuture);
 			} else {
 				LOGGER.info(reply.cause());
@@ -156,28 +160,29 @@ public class ConnectorController {
 		idsService.handleAboutMessage(header.getId(), responseFuture, connectorFuture, resultHandler);
 	}
 
-	public void about(Handler<AsyncResult<String>> resultHandler) {
+	public void about(boolean compact, Handler<AsyncResult<CachedConnector.Representation>> resultHandler) {
 		configService.getConfiguration(configReply -> {
 			if(configReply.succeeded()) {
-				idsService.getConnector(configReply.result(), reply -> {
+				idsService.getCachedConnector(configReply.result(), reply -> {
 					if (reply.succeeded()) {
-						resultHandler.handle(Future.succeededFuture(Json.encodePrettily(reply.result())));
+						resultHandler.handle(Future.succeededFuture(reply.result().getJson(compact)));
 					} else {
 						LOGGER.error("Connector Object could not be retrieved.", reply.cause());
 						resultHandler.handle(Future.failedFuture(reply.cause()));
 					}
 				});
 			} else {
-
+				LOGGER.error("Configuration could not be retrieved.", configReply.cause());
+				resultHandler.handle(Future.failedFuture(configReply.cause()));
 			}
 		});
 	}
 
-	private void payload(Long id, Handler<AsyncResult<File>> resultHandler) {
+	private void payload(Long id, Handler<AsyncResult<PayloadFile>> resultHandler) {
 		getPayload(id, FileType.MULTIPART, resultHandler);
 	}
 
-	private void payloadContent(Long id, String extension, Handler<AsyncResult<File>> resultHandler) {
+	private void payloadContent(Long id, String extension, Handler<AsyncResult<PayloadFile>> resultHandler) {
 		if(extension.equals("json")) {
 			getPayload(id, FileType.JSON, resultHandler);
 		}
@@ -187,66 +192,67 @@ public class ConnectorController {
 		getPayload(id, FileType.MULTIPART, resultHandler);
 	}
 
-	private void getPayload(Long id, FileType fileType, Handler<AsyncResult<File>> resultHandler) {
-		dataSourceManager.findByType("File Upload",jsonObjectAsyncResult -> {
-			if (jsonObjectAsyncResult.succeeded()) {
-				try {
-					DataSource dataSourceFileUpload = DataSourceSerializer.deserialize(jsonObjectAsyncResult.result().getJsonObject(0));
-					dataAssetManager.findDistributionById(id, distReply -> {
-						if (distReply.succeeded()) {
-							Distribution distribution = Json.decodeValue(distReply.result().toString(), Distribution.class);
-							dataAssetManager.findDatasetByResourceId(distribution.getDatasetId(), datReply -> {
-								if (datReply.succeeded()) {
-									Dataset dataset = Json.decodeValue(datReply.result().toString(), Dataset.class);
-									if (dataset.getSourceId().equals(dataSourceFileUpload.getId())) {
-										fileUploadController.getFileUpload(resultHandler, distribution);
-									} else {
-										dataSourceManager.findById(dataset.getSourceId(), reply2 -> {
-											if (reply2.succeeded()) {
-												DataSource dataSource = null;
-												try {
-													dataSource = DataSourceSerializer.deserialize(reply2.result());
-												} catch (ParseException e) {
-													LOGGER.error(e);
-													resultHandler.handle(Future.failedFuture(e));
-												}
+	/**
+	 * Streams the payload of an adapter backed distribution straight into the response. Uploaded files are served in
+	 * place and are handed to the fileHandler instead, which is also called with any failure before the stream started.
+	 * Concurrent requests for the same distribution share one transfer from the adapter, see AdapterResponseStreamer.
+	 * While the ArtifactCache is enabled adapter payloads go through it as well, so repeated requests are sent from disk.
+	 */
+	public void streamPayload(long id, HttpServerResponse response, Handler<AsyncResult<PayloadFile>> fileHandler) {
+		resolvePayload(id, fileHandler, (dataSource, distribution) -> {
+			if (ArtifactCache.getInstance().isEnabled()) {
+				fetchPayload(dataSource, distribution, FileType.MULTIPART, fileHandler);
+				return;
+			}
+			dataSourceAdapterService.getAdapter(dataSource.getDatasourceType(), adapterReply -> {
+				if (adapterReply.succeeded()) {
+					response.putHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\""+distribution.getFilename()+"\"");
+					adapterResponseStreamer.stream(adapterReply.result(), toResourceRequest(dataSource, distribution, FileType.MULTIPART), response, streamReply -> {});
+				} else {
+					LOGGER.error("Adapter could not be retrieved.", adapterReply.cause());
+					fileHandler.handle(Future.failedFuture(adapterReply.cause()));
+				}
+			});
+		});
+	}
 
-												ResourceRequest request = new ResourceRequest();
-												request.setDataSource(dataSource);
-												request.setDataAsset(distribution);
-												request.setFileType(fileType);
+	private void getPayload(Long id, FileType fileType, Handler<AsyncResult<PayloadFile>> resultHandler) {
+		resolvePayload(id, resultHandler, (dataSource, distribution) -> fetchPayload(dataSource, distribution, fileType, resultHandler));
+	}
 
-												dataSourceAdapterService.getFile(dataSource.getDatasourceType(), new JsonObject(Json.encode(request)), reply3 -> {
-													if (reply3.succeeded()) {
-														resultHandler.handle(Future.succeededFuture(new File(reply3.result())));
-													} else {
-														LOGGER.error("FileContent could not be retrieved.", reply3.cause());
-														resultHandler.handle(Future.failedFuture(reply3.cause()));
-													}
-												});
-											} else {
-												LOGGER.error("DataAsset could not be retrieved.", reply2.cause());
-												resultHandler.handle(Future.failedFuture(reply2.cause()));
-											}
-										});
-									}
-								} else {
-									LOGGER.error(datReply.cause());
-									resultHandler.handle(Future.failedFuture(datReply.cause()));
-								}
-							});
-						} else {
-							LOGGER.error(distReply.cause());
-							resultHandler.handle(Future.failedFuture(distReply.cause()));
-						}
-					});
-				} catch (ParseException e) {
-					LOGGER.error(e);
-					resultHandler.handle(Future.failedFuture(e));
+	private void fetchPayload(DataSource dataSource, Distribution distribution, FileType fileType, Handler<AsyncResult<PayloadFile>> resultHandler) {
+		dataSourceAdapterService.getFile(dataSource.getDatasourceType(), toResourceRequest(dataSource, distribution, fileType), reply3 -> {
+			if (reply3.succeeded()) {
+				//files of the ArtifactCache are deleted by the cache itself
+				boolean temporary = !ArtifactCache.getInstance().isCachedPath(reply3.result());
+				resultHandler.handle(Future.succeededFuture(new PayloadFile(new File(reply3.result()), temporary)));
+			} else {
+				LOGGER.error("FileContent could not be retrieved.", reply3.cause());
+				resultHandler.handle(Future.failedFuture(reply3.cause()));
+			}
+		});
+	}
+
+	private JsonObject toResourceRequest(DataSource dataSource, Distribution distribution, FileType fileType) {
+		ResourceRequest request = new ResourceRequest();
+		request.setDataSource(dataSource);
+		request.setDataAsset(distribution);
+		request.setFileType(fileType);
+		return new JsonObject(Json.encode(request));
+	}
+
+	private void resolvePayload(Long id, Handler<AsyncResult<PayloadFile>> resultHandler, BiConsumer<DataSource, Distribution> adapterHandler) {
+		dataAssetManager.resolveArtifact(id, reply -> {
+			if (reply.succeeded()) {
+				ResolvedArtifact artifact = reply.result();
+				if (artifact.isFileUpload()) {
+					fileUploadController.getFileUpload(resultHandler, artifact.getDistribution());
+				} else {
+					adapterHandler.accept(artifact.getDataSource(), artifact.getDistribution());
 				}
 			} else {
-			LOGGER.error(jsonObjectAsyncResult.cause());
-			resultHandler.handle(Future.failedFuture(jsonObjectAsyncResult.cause()));
+				LOGGER.error("DataAsset could not be retrieved.", reply.cause());
+				resultHandler.handle(Future.failedFuture(reply.cause()));
 			}
 		});
 	}
@@ -2,27 +2,27 @@ package de.fraunhofer.fokus.ids.controllers;
 
 import de.fraunhofer.fokus.ids.messages.DataAssetCreateMessage;
 import de.fraunhofer.fokus.ids.models.Constants;
+import de.fraunhofer.fokus.ids.main.ChunkedJsonWriter;
 import de.fraunhofer.fokus.ids.models.DataAssetDescription;
 import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
 import de.fraunhofer.fokus.ids.persistence.entities.Dataset;
 import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
-import de.fraunhofer.fokus.ids.persistence.entities.serialization.DataSourceSerializer;
 import de.fraunhofer.fokus.ids.persistence.enums.DataAssetStatus;
 import de.fraunhofer.fokus.ids.persistence.enums.JobStatus;
 import de.fraunhofer.fokus.ids.persistence.managers.DataAssetManager;
 import de.fraunhofer.fokus.ids.persistence.managers.DataSourceManager;
 import de.fraunhofer.fokus.ids.persistence.managers.JobManager;
+import de.fraunhofer.fokus.ids.services.ConnectorCache;
 import de.fraunhofer.fokus.ids.services.datasourceAdapter.DataSourceAdapterService;
 import io.vertx.core.*;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
-import java.text.ParseException;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -109,16 +109,10 @@ public class DataAssetController {
 
     private void initiateDataAssetCreation(Handler<AsyncResult<Dataset>> next, DataAssetDescription dataAssetDescription) {
         if (dataAssetDescription.getDatasourcetype().equals("File Upload")){
-            dataSourceManager.findByType("File Upload",dataSourceReply -> {
+            dataSourceManager.findDataSourcesByType("File Upload",dataSourceReply -> {
                 Dataset dataset = new Dataset();
                 if (dataSourceReply.succeeded()){
-                    DataSource dataSource = null;
-                    try {
-                        dataSource = DataSourceSerializer.deserialize(dataSourceReply.result().getJsonObject(0));
-                    } catch (ParseException e) {
-                        LOGGER.error(e);
-                        next.handle(Future.failedFuture(e));
-                    }
+                    DataSource dataSource = dataSourceReply.result().get(0);
                     dataset.setSourceId(dataSource.getId());
                     dataset.setDescription((String)dataAssetDescription.getData().get("datasetnotes"));
                     dataset.setTitle((String)dataAssetDescription.getData().get("datasettitle"));
@@ -141,15 +135,9 @@ public class DataAssetController {
             });
         }
         else {
-            dataSourceManager.findById(Integer.toUnsignedLong(dataAssetDescription.getSourceId()), dataSourceReply -> {
+            dataSourceManager.findDataSourceById(Integer.toUnsignedLong(dataAssetDescription.getSourceId()), dataSourceReply -> {
                 if (dataSourceReply.succeeded()) {
-                    DataSource dataSource = null;
-                    try {
-                        dataSource = DataSourceSerializer.deserialize(dataSourceReply.result());
-                    } catch (ParseException e) {
-                        LOGGER.error(e);
-                        next.handle(Future.failedFuture(e));
-                    }
+                    DataSource dataSource = dataSourceReply.result();
 
                     DataAssetCreateMessage mes = new DataAssetCreateMessage();
                     mes.setData(new JsonObject(dataAssetDescription.getData()));
@@ -181,8 +169,7 @@ public class DataAssetController {
     public void getFileName(Long id, Handler<AsyncResult<String>> result){
         dataAssetManager.findDistributionById(id,jsonObjectAsyncResult -> {
             if (jsonObjectAsyncResult.succeeded()){
-                Distribution distribution = Json.decodeValue(jsonObjectAsyncResult.result().toString(), Distribution.class);
-                result.handle(Future.succeededFuture(distribution.getFilename()));
+                result.handle(Future.succeededFuture(jsonObjectAsyncResult.result().getFilename()));
             }
             else {
                 LOGGER.error(jsonObjectAsyncResult.cause());
@@ -198,9 +185,10 @@ public class DataAssetController {
 		        dataAsset.setLicense(licenceurl);
             }
 			LOGGER.info("DataAsset was successfully created.");
-			dataAssetManager.add(new JsonObject(Json.encode(res.result())), reply -> {
+			dataAssetManager.add(dataAsset, reply -> {
 				if (reply.succeeded()) {
 					LOGGER.info("DataAsset was successfully inserted to the DB.");
+					ConnectorCache.getInstance().invalidate();
 					jobManager.updateStatus(jobId, JobStatus.FINISHED, reply2 -> {});
 				} else {
 					LOGGER.error("DataAsset insertion failed.", res.cause());
@@ -215,75 +203,40 @@ public class DataAssetController {
 
 
 	public void publishAll(Handler<AsyncResult<JsonObject>> resultHandler) {
-        dataAssetManager.findAll(reply -> {
-            if (reply.succeeded()) {
-                ArrayList<Future> publishFutures = new ArrayList<>();
-                for (int i = 0; i < reply.result().size(); i++) {
-                    Dataset da = Json.decodeValue(reply.result().getJsonObject(i).toString(), Dataset.class);
-                    Promise promise = Promise.promise();
-                    dataAssetManager.changeStatus(DataAssetStatus.PUBLISHED, da.getId(), promise.future());
-                }
-                CompositeFuture.all(publishFutures).onComplete(reply2 -> {
-                    if (reply2.succeeded()) {
-                        brokerController.update(reply3 -> {
-                            if (reply3.succeeded()) {
-                                JsonObject jO = new JsonObject();
-                                jO.put("success", "Data Assets wurden veröffentlicht.");
-                                resultHandler.handle(Future.succeededFuture(jO));
-                            } else {
-                                LOGGER.error(reply3.cause());
-                                resultHandler.handle(Future.failedFuture(reply3.cause()));
-                            }
-                        });
-                    } else {
-                        LOGGER.error(reply2.cause());
-                        resultHandler.handle(Future.failedFuture(reply.cause()));
-                    }
-                });
-            } else {
-                LOGGER.error(reply.cause());
-                resultHandler.handle(Future.failedFuture(reply.cause()));
-            }
-        });
-    }
+		changeAllStatus(DataAssetStatus.PUBLISHED, "Data Assets wurden veröffentlicht.", resultHandler);
+	}
 
-    public void unpublishAll(Handler<AsyncResult<JsonObject>> resultHandler) {
-        dataAssetManager.findAll(reply -> {
-            if (reply.succeeded()) {
-                ArrayList<Future> publishFutures = new ArrayList<>();
-                for (int i = 0; i < reply.result().size(); i++) {
-                    Dataset da = Json.decodeValue(reply.result().getJsonObject(i).toString(), Dataset.class);
-                    Promise promise = Promise.promise();
-                    dataAssetManager.changeStatus(DataAssetStatus.APPROVED, da.getId(), promise.future());
-                }
-                CompositeFuture.all(publishFutures).onComplete(reply2 -> {
-                    if (reply2.succeeded()) {
-                        brokerController.update(reply3 -> {
-                            if (reply3.succeeded()) {
-                                JsonObject jO = new JsonObject();
-                                jO.put("success", "Data Assets wurden zurückgehalten.");
-                                resultHandler.handle(Future.succeededFuture(jO));
-                            } else {
-                                LOGGER.error(reply3.cause());
-                                resultHandler.handle(Future.failedFuture(reply3.cause()));
-                            }
-                        });
-                    } else {
-                        LOGGER.error(reply2.cause());
-                        resultHandler.handle(Future.failedFuture(reply.cause()));
-                    }
-                });
-            } else {
-                LOGGER.error(reply.cause());
-                resultHandler.handle(Future.failedFuture(reply.cause()));
-            }
-        });
-    }
+	public void unpublishAll(Handler<AsyncResult<JsonObject>> resultHandler) {
+		changeAllStatus(DataAssetStatus.APPROVED, "Data Assets wurden zurückgehalten.", resultHandler);
+	}
+
+	private void changeAllStatus(DataAssetStatus status, String successMessage, Handler<AsyncResult<JsonObject>> resultHandler) {
+		dataAssetManager.changeAllStatus(status, reply -> {
+			if (reply.succeeded()) {
+				ConnectorCache.getInstance().invalidate();
+				brokerController.update(reply2 -> {
+					if (reply2.succeeded()) {
+						JsonObject jO = new JsonObject();
+						jO.put("success", successMessage);
+						jO.put("count", reply.result());
+						resultHandler.handle(Future.succeededFuture(jO));
+					} else {
+						LOGGER.error(reply2.cause());
+						resultHandler.handle(Future.failedFuture(reply2.cause()));
+					}
+				});
+			} else {
+				LOGGER.error(reply.cause());
+				resultHandler.handle(Future.failedFuture(reply.cause()));
+			}
+		});
+	}
 
 	public void publish(Long id, Handler<AsyncResult<JsonObject>> resultHandler) {
 		dataAssetManager.changeStatus(DataAssetStatus.PUBLISHED, id, reply -> {
 			JsonObject jO = new JsonObject();
 			if (reply.succeeded()) {
+				ConnectorCache.getInstance().invalidate();
 				brokerController.update(reply2 -> {
 				    if(reply2.succeeded()){
                         jO.put("success", "Data Asset " + id + " wurde veröffentlicht.");
@@ -305,6 +258,7 @@ public class DataAssetController {
 		dataAssetManager.changeStatus(DataAssetStatus.APPROVED, id, reply -> {
 			JsonObject jO = new JsonObject();
 			if (reply.succeeded()) {
+				ConnectorCache.getInstance().invalidate();
                 brokerController.update(reply2 -> {
                     if(reply2.succeeded()){
                         jO.put("success", "Data Asset " + id + " wurde zurückgehalten.");
@@ -327,16 +281,17 @@ public class DataAssetController {
 	public void delete(Long id, Handler<AsyncResult<JsonObject>> resultHandler) {
 		dataAssetManager.findDatasetById(id, dataAssetReply -> {
 			if(dataAssetReply.succeeded()){
-			    Dataset ds = Json.decodeValue(dataAssetReply.result().toString(), Dataset.class);
-				dataSourceManager.findById(ds.getSourceId(), reply2 -> {
+			    Dataset ds = dataAssetReply.result();
+				dataSourceManager.findDataSourceById(ds.getSourceId(), reply2 -> {
 				    if(reply2.succeeded()){
                         Promise<JsonObject> serviceDeletePromise = Promise.promise();
-						dataSourceAdapterService.delete(reply2.result().getString("datasourcetype"), ds.getResourceId(), serviceDeletePromise.future());
+						dataSourceAdapterService.delete(reply2.result().getDatasourceType(), ds.getResourceId(), serviceDeletePromise.future());
 
 						Promise<Void> databaseDeletePromise = Promise.promise();
 						dataAssetManager.delete(id, databaseDeletePromise.future());
 
 						CompositeFuture.all(databaseDeletePromise.future(), serviceDeletePromise.future()).onComplete( ar -> {
+							ConnectorCache.getInstance().invalidate();
 							if(ar.succeeded()){
 								brokerController.update(reply -> {
 								    if(reply.succeeded()){
@@ -367,10 +322,10 @@ public class DataAssetController {
 		});
 	}
 
-	public void index(Handler<AsyncResult<JsonArray>> resultHandler) {
+	public void index(Handler<AsyncResult<String>> resultHandler) {
 		dataAssetManager.findAll(reply -> {
 			if (reply.succeeded()) {
-				resultHandler.handle(Future.succeededFuture(reply.result()));
+				resultHandler.handle(Future.succeededFuture(Json.encode(reply.result())));
 
 			}
 			else {
@@ -380,6 +335,22 @@ public class DataAssetController {
 		});
 	}
 
+	public void page(Long afterId, int limit, Handler<AsyncResult<String>> resultHandler) {
+		dataAssetManager.findPage(afterId, limit, reply -> {
+			if (reply.succeeded()) {
+				resultHandler.handle(Future.succeededFuture(Json.encode(reply.result())));
+			}
+			else {
+				LOGGER.error("DataAssets could not be read.",reply.cause());
+				resultHandler.handle(Future.failedFuture(reply.cause()));
+			}
+		});
+	}
+
+	public void stream(ChunkedJsonWriter writer) {
+		dataAssetManager.streamAll(chunk -> writer.writeElements(chunk.stream().map(Json::encode).collect(Collectors.toList())), writer::end);
+	}
+
 	public void resource(Message<Object> receivedMessage) {
 		//TODO Get REsource from Adapter
 	}
@@ -1,10 +1,12 @@
 package de.fraunhofer.fokus.ids.controllers;
 
+import de.fraunhofer.fokus.ids.main.ChunkedJsonWriter;
 import de.fraunhofer.fokus.ids.models.Constants;
 import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
 import de.fraunhofer.fokus.ids.persistence.managers.DataSourceManager;
 import de.fraunhofer.fokus.ids.services.dockerService.DockerService;
 import io.vertx.core.*;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -139,6 +141,48 @@ public class DataSourceController {
         });
     }
 
+    public void findPageByType(Long afterId, int limit, Handler<AsyncResult<JsonObject>> resultHandler) {
+        dataSourceManager.findPageByType(afterId, limit, reply -> {
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(reply.result()));
+            }
+            else {
+                LOGGER.error("DataSources not found.", reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * Streams the same document as findAllByType. The rows arrive ordered by type, so a new group is opened whenever
+     * the type changes.
+     */
+    public void streamAllByType(ChunkedJsonWriter writer) {
+        String[] currentType = new String[1];
+        dataSourceManager.streamAllByType(chunk -> {
+            StringBuilder text = new StringBuilder();
+            for (JsonObject dataSource : chunk) {
+                String type = dataSource.getString("datasourcetype");
+                if (type.equals(currentType[0])) {
+                    text.append(',');
+                } else {
+                    if (currentType[0] != null) {
+                        text.append("],");
+                    }
+                    text.append(Json.encode(type)).append(":[");
+                    currentType[0] = type;
+                }
+                text.append(dataSource.encode());
+            }
+            return text.length() == 0 ? Future.succeededFuture() : writer.write(text.toString());
+        }, reply -> {
+            if (reply.succeeded() && currentType[0] != null) {
+                writer.write("]");
+            }
+            writer.end(reply);
+        });
+    }
+
     public void findById(Long id, Handler<AsyncResult<JsonObject>> resultHandler) {
         dataSourceManager.findById(id, reply -> {
             if (reply.succeeded()) {
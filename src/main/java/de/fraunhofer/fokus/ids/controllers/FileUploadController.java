@@ -2,6 +2,7 @@ package de.fraunhofer.fokus.ids.controllers;
 
 import de.fraunhofer.fokus.ids.models.Constants;
 import de.fraunhofer.fokus.ids.models.DataAssetDescription;
+import de.fraunhofer.fokus.ids.models.PayloadFile;
 import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
 import de.fraunhofer.fokus.ids.persistence.managers.DataAssetManager;
 import de.fraunhofer.fokus.ids.persistence.managers.DataSourceManager;
@@ -20,8 +21,6 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -32,8 +31,10 @@ import java.util.zip.ZipOutputStream;
 public class FileUploadController {
     private Logger LOGGER = LoggerFactory.getLogger(FileUploadController.class.getName());
     private DataAssetController dataAssetController;
+    private Vertx vertx;
 
     public FileUploadController(Vertx vertx) {
+        this.vertx = vertx;
         dataAssetController = new DataAssetController(vertx);
     }
 
@@ -111,23 +112,18 @@ public class FileUploadController {
 
     }
 
-    public void getFileUpload( Handler<AsyncResult<File>> resultHandler, Distribution distribution)  {
+    /**
+     * Hands out the stored upload itself. The lookup runs on the file system thread pool, not on the event loop.
+     */
+    public void getFileUpload( Handler<AsyncResult<PayloadFile>> resultHandler, Distribution distribution)  {
         String filename = distribution.getFilename();
-        File file = new File(filename);
-        File parent = new File(System.getProperty("java.io.tmpdir"));
-        String baseName = FilenameUtils.getBaseName(filename);
-        String extension = FilenameUtils.getExtension(filename);
-        File temp = new File(parent, baseName+"."+extension);
-
-        if (temp.exists()) {
-            temp.delete();
-        }
-        try {
-            temp.createNewFile();
-            Files.copy(file.toPath(),temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException ex) {
-            LOGGER.error(ex);
-        }
-        resultHandler.handle(Future.succeededFuture(temp));
+        vertx.fileSystem().exists(filename, existsReply -> {
+            if (existsReply.succeeded() && existsReply.result()) {
+                resultHandler.handle(Future.succeededFuture(new PayloadFile(new File(filename), false)));
+            } else {
+                LOGGER.error("Uploaded file " + filename + " not found.", existsReply.cause());
+                resultHandler.handle(Future.failedFuture("Uploaded file not found."));
+            }
+        });
     }
 }
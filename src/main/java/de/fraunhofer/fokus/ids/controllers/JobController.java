@@ -1,11 +1,14 @@
 package de.fraunhofer.fokus.ids.controllers;
 
+import de.fraunhofer.fokus.ids.main.ChunkedJsonWriter;
 import de.fraunhofer.fokus.ids.persistence.managers.JobManager;
 import io.vertx.core.*;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+
+import java.util.stream.Collectors;
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
  */
@@ -30,6 +33,22 @@ public class JobController extends AbstractVerticle {
 		});
     }
 
+    public void page(Long afterId, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		jobManager.findPage(afterId, limit, reply -> {
+			if (reply.succeeded()) {
+				resultHandler.handle(Future.succeededFuture(reply.result()));
+			}
+			else {
+				LOGGER.error("Jobs could not be read.",reply.cause());
+				resultHandler.handle(Future.failedFuture(reply.cause()));
+			}
+		});
+    }
+
+    public void stream(ChunkedJsonWriter writer) {
+		jobManager.streamAll(chunk -> writer.writeElements(chunk.stream().map(JsonObject::encode).collect(Collectors.toList())), writer::end);
+    }
+
     public void deleteAll(Handler<AsyncResult<JsonObject>> resultHandler) {
 		jobManager.deleteAll(reply -> {
     		if(reply.succeeded()){
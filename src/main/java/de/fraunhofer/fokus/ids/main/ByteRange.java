@@ -0,0 +1,82 @@
+package de.fraunhofer.fokus.ids.main;
+
+/**
+ * A single byte range of a Range request header, resolved against the size of the requested file.
+ * Multi-range requests and other units are not supported and are answered with the full file, as RFC 7233 allows.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class ByteRange {
+
+	private static final String UNIT = "bytes=";
+
+	private final long start;
+	private final long end;
+	private final long size;
+
+	private ByteRange(long start, long end, long size) {
+		this.start = start;
+		this.end = end;
+		this.size = size;
+	}
+
+	/**
+	 * Parses "bytes=first-last", "bytes=first-" and "bytes=-suffix". Returns null if the header is to be ignored.
+	 * A range that lies completely behind the end of the file is returned but not satisfiable.
+	 */
+	public static ByteRange parse(String header, long size) {
+		if (header == null || !header.startsWith(UNIT) || header.indexOf(',') != -1) {
+			return null;
+		}
+		String spec = header.substring(UNIT.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash == -1) {
+			return null;
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			if (first.isEmpty()) {
+				if (last.isEmpty()) {
+					return null;
+				}
+				long suffix = Long.parseLong(last);
+				if (suffix < 0) {
+					return null;
+				}
+				if (suffix == 0 || size == 0) {
+					return new ByteRange(size, size, size);
+				}
+				return new ByteRange(Math.max(0, size - suffix), size - 1, size);
+			}
+			long start = Long.parseLong(first);
+			long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+			if (start < 0 || end < start) {
+				return null;
+			}
+			return new ByteRange(start, Math.min(end, size - 1), size);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public boolean isSatisfiable() {
+		return start < size;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	public String getContentRange() {
+		return "bytes " + start + "-" + end + "/" + size;
+	}
+
+	public static String getUnsatisfiedContentRange(long size) {
+		return "bytes */" + size;
+	}
+}
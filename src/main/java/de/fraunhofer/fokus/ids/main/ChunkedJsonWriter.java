@@ -0,0 +1,104 @@
+package de.fraunhofer.fokus.ids.main;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.apache.http.entity.ContentType;
+
+import java.util.List;
+/**
+ * Writes a JSON document to a chunked response piece by piece. The opening token is only sent with the first write,
+ * so a failure before any data was produced can still be answered with a 500.
+ * Once the client closed the connection every write fails, so the producer stops and releases what it holds.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class ChunkedJsonWriter {
+
+	private Logger LOGGER = LoggerFactory.getLogger(ChunkedJsonWriter.class.getName());
+	private HttpServerResponse response;
+	private String opening;
+	private String closing;
+	private boolean started = false;
+	private boolean elementWritten = false;
+	private boolean closed = false;
+	private Promise<Void> drainPromise;
+
+	public ChunkedJsonWriter(HttpServerResponse response, String opening, String closing) {
+		this.response = response;
+		this.opening = opening;
+		this.closing = closing;
+	}
+
+	public static ChunkedJsonWriter array(HttpServerResponse response) {
+		return new ChunkedJsonWriter(response, "[", "]");
+	}
+
+	/**
+	 * Appends the already encoded elements, separated by commas, and completes once the response accepts more data.
+	 */
+	public Future<Void> writeElements(List<String> elements) {
+		if (elements.isEmpty()) {
+			return Future.succeededFuture();
+		}
+		StringBuilder chunk = new StringBuilder();
+		for (String element : elements) {
+			if (elementWritten) {
+				chunk.append(',');
+			}
+			chunk.append(element);
+			elementWritten = true;
+		}
+		return write(chunk.toString());
+	}
+
+	public Future<Void> write(String text) {
+		if (closed || response.closed()) {
+			closed = true;
+			return Future.failedFuture("Connection closed by client.");
+		}
+		if (!started) {
+			started = true;
+			//a closed connection reports a full write queue, but its close event is not repeated
+			response.closeHandler(v -> {
+				closed = true;
+				if (drainPromise != null) {
+					drainPromise.tryFail("Connection closed by client.");
+				}
+			});
+			response.setChunked(true);
+			response.putHeader("content-type", ContentType.APPLICATION_JSON.toString());
+			response.write(opening);
+		}
+		response.write(text);
+		if (response.writeQueueFull()) {
+			Promise<Void> promise = Promise.promise();
+			drainPromise = promise;
+			response.drainHandler(v -> promise.tryComplete());
+			return promise.future();
+		}
+		return Future.succeededFuture();
+	}
+
+	public void end(AsyncResult<Void> result) {
+		if (result.succeeded()) {
+			if (started) {
+				response.end(closing);
+			} else {
+				response.putHeader("content-type", ContentType.APPLICATION_JSON.toString());
+				response.end(opening + closing);
+			}
+		} else {
+			LOGGER.error("Streaming response failed.", result.cause());
+			if (started) {
+				//the status line is already sent, abort so the client does not take the truncated body as complete
+				response.reset();
+			} else {
+				response.setStatusCode(500).end();
+			}
+		}
+	}
+}
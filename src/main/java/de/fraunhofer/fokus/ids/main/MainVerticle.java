@@ -2,14 +2,23 @@ package de.fraunhofer.fokus.ids.main;
 
 import de.fraunhofer.fokus.ids.controllers.*;
 import de.fraunhofer.fokus.ids.models.DataAssetDescription;
+import de.fraunhofer.fokus.ids.models.PayloadFile;
 import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
 import de.fraunhofer.fokus.ids.persistence.managers.AuthManager;
 import de.fraunhofer.fokus.ids.persistence.managers.BrokerManager;
+import de.fraunhofer.fokus.ids.persistence.managers.DataAssetManager;
 import de.fraunhofer.fokus.ids.persistence.util.DatabaseConnector;
+import de.fraunhofer.fokus.ids.persistence.util.ReferenceCache;
+import de.fraunhofer.fokus.ids.services.CachedConnector;
+import de.fraunhofer.fokus.ids.services.CircuitBreakers;
 import de.fraunhofer.fokus.ids.services.ConfigService;
 import de.fraunhofer.fokus.ids.services.InitService;
+import de.fraunhofer.fokus.ids.services.StreamingMultipartEntity;
+import de.fraunhofer.fokus.ids.services.TokenCache;
+import de.fraunhofer.fokus.ids.services.VerifiedTokenCache;
 import de.fraunhofer.fokus.ids.services.authAdapter.AuthAdapterServiceVerticle;
 import de.fraunhofer.fokus.ids.services.brokerService.BrokerServiceVerticle;
+import de.fraunhofer.fokus.ids.services.datasourceAdapter.ArtifactCache;
 import de.fraunhofer.fokus.ids.services.datasourceAdapter.DataSourceAdapterServiceVerticle;
 import de.fraunhofer.fokus.ids.services.dockerService.DockerServiceVerticle;
 import de.fraunhofer.fokus.ids.utils.IDSMessageParser;
@@ -40,6 +49,11 @@ import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 
 import java.io.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 /**
@@ -47,6 +61,7 @@ import java.util.*;
  */
 public class MainVerticle extends AbstractVerticle{
 	private Logger LOGGER = LoggerFactory.getLogger(MainVerticle.class.getName());
+	private static final int DEFAULT_PAGE_LIMIT = 100;
 	private AuthManager authManager;
 	private ConnectorController connectorController;
 	private DataAssetController dataAssetController;
@@ -112,6 +127,8 @@ public class MainVerticle extends AbstractVerticle{
 						if (ar.succeeded()) {
 							servicePort = ar.result().getInteger("SERVICE_PORT");
 							DatabaseConnector.getInstance().create(vertx, ar.result().getJsonObject("DB_CONFIG"), 5);
+							VerifiedTokenCache.getInstance().configure(ar.result().getJsonObject("TOKEN_CACHE_CONFIG", new JsonObject()));
+							CircuitBreakers.getInstance().configure(vertx, ar.result().getJsonObject("CIRCUIT_BREAKER_CONFIG", new JsonObject()));
 							envPromise.complete();
 						} else {
 							envPromise.fail(ar.cause());
@@ -166,22 +183,27 @@ public class MainVerticle extends AbstractVerticle{
 										connectorController.checkMessage(IDSMessageParser.parse(routingContext.request().formAttributes()), DescriptionRequestMessage.class, result ->
 										replyMessage(result, routingContext.response())))
 								.addHandlerByOperationId("aboutGetId",routingContext ->
-										connectorController.about(result ->
-										reply(result, routingContext.response())))
+										connectorController.about(Boolean.parseBoolean(routingContext.request().getParam("compact")), result ->
+										replyRepresentation(result, routingContext)))
 								.addHandlerByOperationId("dataPostId",routingContext ->
 										connectorController.checkMessage(IDSMessageParser.parse(routingContext.request().formAttributes()), ArtifactRequestMessage.class, result ->
 										replyMessage(result, routingContext.response())))
 								.addHandlerByOperationId("dataGetId",routingContext ->
-										connectorController.payload(Long.parseLong(routingContext.request().getParam("id")), "", result ->
-										replyFile(result,Long.parseLong(routingContext.request().getParam("id")), routingContext.response())))
+										connectorController.streamPayload(Long.parseLong(routingContext.request().getParam("id")), routingContext.response(), result ->
+										replyFile(result,Long.parseLong(routingContext.request().getParam("id")), routingContext)))
 								.addHandlerByOperationId("infrastructureId",routingContext ->
 										connectorController.routeMessage(IDSMessageParser.parse(routingContext.request().formAttributes()), result ->
 										replyMessage(result, routingContext.response())))
 
 								// Jobs
 
-								.addHandlerByOperationId("jobGetId",routingContext ->
-										jobController.findAll(result -> reply(result, routingContext.response())))
+								.addHandlerByOperationId("jobGetId",routingContext -> {
+										if (isPageRequest(routingContext)) {
+											jobController.page(getAfterId(routingContext), getLimit(routingContext), result -> reply(result, routingContext.response()));
+										} else {
+											jobController.stream(ChunkedJsonWriter.array(routingContext.response()));
+										}
+								})
 								.addHandlerByOperationId("jobDeleteId",routingContext ->
 										jobController.deleteAll(result -> reply(result, routingContext.response())))
 
@@ -199,8 +221,13 @@ public class MainVerticle extends AbstractVerticle{
 										dataAssetController.unPublish(Long.parseLong(routingContext.request().getParam("id")), result -> reply(result, routingContext.response())))
 								.addHandlerByOperationId("deleteDataAssetId",routingContext ->
 										dataAssetController.delete(Long.parseLong(routingContext.request().getParam("id")), result -> reply(result, routingContext.response())))
-								.addHandlerByOperationId("getDataAssetsId",routingContext ->
-										dataAssetController.index(result -> reply(result, routingContext.response())))
+								.addHandlerByOperationId("getDataAssetsId",routingContext -> {
+										if (isPageRequest(routingContext)) {
+											dataAssetController.page(getAfterId(routingContext), getLimit(routingContext), result -> reply(result, routingContext.response()));
+										} else {
+											dataAssetController.stream(ChunkedJsonWriter.array(routingContext.response()));
+										}
+								})
 								.addHandlerByOperationId("addDataAssetId",routingContext ->
 										processDataAssetInformation(routingContext))
 
@@ -210,8 +237,13 @@ public class MainVerticle extends AbstractVerticle{
 										dataSourceController.add(toDataSource(routingContext.getBodyAsJson()), result -> reply(result, routingContext.response())))
 								.addHandlerByOperationId("dataSourceDeleteId",routingContext ->
 										dataSourceController.delete(Long.parseLong(routingContext.request().getParam("id")), result -> reply(result, routingContext.response())))
-								.addHandlerByOperationId("allDataSourceGetId",routingContext ->
-										dataSourceController.findAllByType(result -> reply(result, routingContext.response())))
+								.addHandlerByOperationId("allDataSourceGetId",routingContext -> {
+										if (isPageRequest(routingContext)) {
+											dataSourceController.findPageByType(getAfterId(routingContext), getLimit(routingContext), result -> reply(result, routingContext.response()));
+										} else {
+											dataSourceController.streamAllByType(new ChunkedJsonWriter(routingContext.response(), "{", "}"));
+										}
+								})
 								.addHandlerByOperationId("datasourceGetId",routingContext ->
 										dataSourceController.findById(Long.parseLong(routingContext.request().getParam("id")), result -> reply(result, routingContext.response())))
 								.addHandlerByOperationId("dataSourceTypeGetId",routingContext ->
@@ -241,6 +273,21 @@ public class MainVerticle extends AbstractVerticle{
 								.addHandlerByOperationId("configEditId",routingContext ->
 										configService.editConfiguration(routingContext.getBodyAsJson(), result -> reply(result, routingContext.response())))
 
+								// Metrics
+
+								.addHandlerByOperationId("metricsGetId",routingContext ->
+										reply(getMetrics(), routingContext.response()))
+								.addHandlerByOperationId("tokenCacheFlushId",routingContext -> {
+										VerifiedTokenCache.getInstance().flush();
+										reply(new JsonObject().put("status", "success").put("text", "Token-Cache wurde geleert."), routingContext.response());
+								})
+								.addHandlerByOperationId("circuitBreakersGetId",routingContext ->
+										reply(CircuitBreakers.getInstance().getStates(), routingContext.response()))
+								.addHandlerByOperationId("circuitBreakersResetId",routingContext -> {
+										CircuitBreakers.getInstance().reset();
+										reply(new JsonObject().put("status", "success").put("text", "Circuit Breaker wurden zurückgesetzt."), routingContext.response());
+								})
+
 								// Upload
 
 								.addHandlerByOperationId("fileAddId",routingContext ->
@@ -278,8 +325,8 @@ public class MainVerticle extends AbstractVerticle{
 
 						Router router = routerFactory.getRouter();
 						router.route("/").handler(routingContext -> {
-							connectorController.about(result ->
-									reply(result, routingContext.response()));
+							connectorController.about(false, result ->
+									replyRepresentation(result, routingContext));
 						});
 						router.route().handler(CorsHandler.create("*").allowedHeaders(allowedHeaders).allowedMethods(allowedMethods));
 						router.route().handler(BodyHandler.create());
@@ -304,6 +351,29 @@ public class MainVerticle extends AbstractVerticle{
 		dataAssetController.add(Json.decodeValue(jsonObject.toString(), DataAssetDescription.class), licenseurl, licensetitle, result -> reply(result, routingContext.response()));
 	}
 
+	private JsonObject getMetrics() {
+		return new JsonObject()
+				.put("token", TokenCache.getInstance(vertx).getMetrics())
+				.put("verifiedTokens", VerifiedTokenCache.getInstance().getMetrics())
+				.put("artifacts", ArtifactCache.getInstance().getMetrics())
+				.put("referenceRows", ReferenceCache.getInstance().getMetrics())
+				.put("unknownArtifacts", DataAssetManager.getUnknownIdMetrics());
+	}
+
+	private boolean isPageRequest(RoutingContext routingContext) {
+		return routingContext.request().getParam("limit") != null || routingContext.request().getParam("after_id") != null;
+	}
+
+	private Long getAfterId(RoutingContext routingContext) {
+		String afterId = routingContext.request().getParam("after_id");
+		return afterId == null ? null : Long.parseLong(afterId);
+	}
+
+	private int getLimit(RoutingContext routingContext) {
+		String limit = routingContext.request().getParam("limit");
+		return limit == null ? DEFAULT_PAGE_LIMIT : Integer.parseInt(limit);
+	}
+
 	//TODO: WORKAROUND. Find way to use Json.deserialize()
 	private DataSource toDataSource(JsonObject bodyAsJson) {
 		DataSource ds = new DataSource();
@@ -332,14 +402,50 @@ public class MainVerticle extends AbstractVerticle{
 		}
 	}
 
-	private void replyFile(AsyncResult<File> result,Long id, HttpServerResponse response){
+	private void replyRepresentation(AsyncResult<CachedConnector.Representation> result, RoutingContext routingContext){
+		HttpServerResponse response = routingContext.response();
+		if(result.succeeded()){
+			String etag = result.result().getEtag();
+			response.putHeader(HttpHeaders.ETAG, etag);
+			response.putHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+			if(matchesEtag(routingContext.request().getHeader(HttpHeaders.IF_NONE_MATCH), etag)){
+				response.setStatusCode(304).end();
+			} else {
+				response.putHeader("content-type", ContentType.APPLICATION_JSON.toString());
+				response.end(result.result().getBody());
+			}
+		}
+		else{
+			LOGGER.error("Result Future failed.",result.cause());
+			response.setStatusCode(500).end();
+		}
+	}
+
+	private boolean matchesEtag(String ifNoneMatch, String etag){
+		if(ifNoneMatch == null){
+			return false;
+		}
+		for(String candidate : ifNoneMatch.split(",")){
+			String tag = candidate.trim();
+			//If-None-Match uses the weak comparison, so a W/ prefix added by a proxy still matches
+			if(tag.startsWith("W/")){
+				tag = tag.substring(2);
+			}
+			if(tag.equals("*") || tag.equals(etag)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void replyFile(AsyncResult<PayloadFile> result,Long id, RoutingContext routingContext){
+		HttpServerResponse response = routingContext.response();
 		dataAssetController.getFileName(id,stringAsyncResult->{
 		    if (stringAsyncResult.succeeded()){
                 if(result.succeeded()){
                     if(result.result() != null) {
                         response.putHeader(HttpHeaders.CONTENT_DISPOSITION,"attachment; filename=\""+stringAsyncResult.result()+"\"");
-                        response.sendFile(result.result().toString());
-                        new File(result.result().toString()).delete();
+                        sendFileRange(result.result(), routingContext);
                     } else {
 						LOGGER.error("Dataset not found! ",stringAsyncResult.cause());
 						response.setStatusCode(500).end();
@@ -358,9 +464,79 @@ public class MainVerticle extends AbstractVerticle{
 
 	}
 
+	/**
+	 * Sends the file, or the single byte range asked for by a Range header, with sendFile so the kernel still copies
+	 * it without passing through the heap. Temporary files are deleted once they were sent, stored ones are left in place.
+	 */
+	private void sendFileRange(PayloadFile payloadFile, RoutingContext routingContext){
+		HttpServerResponse response = routingContext.response();
+		String path = payloadFile.getFile().getPath();
+		vertx.fileSystem().props(path, propsReply -> {
+			if(propsReply.failed()){
+				LOGGER.error("File could not be read.", propsReply.cause());
+				response.setStatusCode(500).end();
+				return;
+			}
+			long size = propsReply.result().size();
+			long lastModified = propsReply.result().lastModifiedTime();
+			String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+			response.putHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+			response.putHeader(HttpHeaders.ETAG, etag);
+			response.putHeader(HttpHeaders.LAST_MODIFIED, toHttpDate(lastModified));
+
+			Handler<AsyncResult<Void>> deleteHandler = sent -> {
+				if(payloadFile.isTemporary()){
+					vertx.fileSystem().delete(path, deleteReply -> {
+						if(deleteReply.failed()){
+							LOGGER.error("File could not be deleted.", deleteReply.cause());
+						}
+					});
+				}
+			};
+			ByteRange range = matchesIfRange(routingContext.request().getHeader("If-Range"), etag, lastModified)
+					? ByteRange.parse(routingContext.request().getHeader("Range"), size)
+					: null;
+			if(range == null){
+				response.sendFile(path, deleteHandler);
+			} else if(!range.isSatisfiable()){
+				response.putHeader(HttpHeaders.CONTENT_RANGE, ByteRange.getUnsatisfiedContentRange(size));
+				response.setStatusCode(416).end();
+				deleteHandler.handle(Future.succeededFuture());
+			} else {
+				response.putHeader(HttpHeaders.CONTENT_RANGE, range.getContentRange());
+				response.setStatusCode(206);
+				response.sendFile(path, range.getStart(), range.getLength(), deleteHandler);
+			}
+		});
+	}
+
+	private boolean matchesIfRange(String ifRange, String etag, long lastModified){
+		if(ifRange == null){
+			return true;
+		}
+		//If-Range uses the strong comparison, a weak tag never matches
+		if(ifRange.startsWith("\"")){
+			return ifRange.equals(etag);
+		}
+		if(ifRange.startsWith("W/")){
+			return false;
+		}
+		try {
+			return ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond() == lastModified / 1000;
+		} catch (DateTimeParseException e) {
+			return false;
+		}
+	}
+
+	private String toHttpDate(long millis){
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+	}
+
 	private void replyMessage(AsyncResult<HttpEntity> result, HttpServerResponse response){
 		if(result.succeeded()){
-			if(result.result() != null) {
+			if(result.result() instanceof StreamingMultipartEntity) {
+				((StreamingMultipartEntity) result.result()).send(vertx, response);
+			} else if(result.result() != null) {
 				try(ByteArrayOutputStream baos = new ByteArrayOutputStream()){
 					Header contentTypeHeader =  result.result().getContentType();
 					result.result().writeTo(baos);
@@ -0,0 +1,27 @@
+package de.fraunhofer.fokus.ids.models;
+
+import java.io.File;
+/**
+ * A file holding the payload of a data asset. Temporary files were downloaded for a single request and are deleted
+ * once they were sent, stored files are served in place and must be left alone.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class PayloadFile {
+
+    private File file;
+    private boolean temporary;
+
+    public PayloadFile(File file, boolean temporary) {
+        this.file = file;
+        this.temporary = temporary;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isTemporary() {
+        return temporary;
+    }
+}
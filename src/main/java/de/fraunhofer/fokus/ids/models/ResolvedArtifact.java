@@ -0,0 +1,40 @@
+package de.fraunhofer.fokus.ids.models;
+
+import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
+import de.fraunhofer.fokus.ids.persistence.entities.Dataset;
+import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
+/**
+ * A requested distribution together with its dataset and the data source the dataset was created from.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class ResolvedArtifact {
+
+    public static final String FILE_UPLOAD = "File Upload";
+
+    private Distribution distribution;
+    private Dataset dataset;
+    private DataSource dataSource;
+
+    public ResolvedArtifact(Distribution distribution, Dataset dataset, DataSource dataSource) {
+        this.distribution = distribution;
+        this.dataset = dataset;
+        this.dataSource = dataSource;
+    }
+
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public boolean isFileUpload() {
+        return FILE_UPLOAD.equals(dataSource.getDatasourceType());
+    }
+}
@@ -2,8 +2,8 @@ package de.fraunhofer.fokus.ids.persistence.managers;
 
 import de.fraunhofer.fokus.ids.persistence.entities.User;
 import de.fraunhofer.fokus.ids.persistence.util.DatabaseConnector;
+import de.fraunhofer.fokus.ids.persistence.util.EntityMapper;
 import io.vertx.core.*;
-import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -41,13 +41,13 @@ public class AuthManager {
 
     public void login(JsonObject credentials, Handler<AsyncResult<String>> resultHandler) {
 
-        databaseConnector.query(USER_QUERY, Tuple.tuple().addString(credentials.getString("username")),reply -> {
+        databaseConnector.query(USER_QUERY, Tuple.tuple().addString(credentials.getString("username")), EntityMapper::toUser, reply -> {
             if (reply.failed()) {
                 LOGGER.error(reply.cause());
                 resultHandler.handle(Future.failedFuture(reply.cause().toString()));
             } else {
                 if (reply.result().size() > 0) {
-                    User user = Json.decodeValue(reply.result().get(0).toString(), User.class);
+                    User user = reply.result().get(0);
 
                     if (BCrypt.checkpw(credentials.getString("password"), user.getPassword())) {
                         resultHandler.handle(Future.succeededFuture(provider.generateToken(new JsonObject().put("sub", user.getUsername()), new JWTOptions().setExpiresInMinutes(24*60))));
@@ -22,7 +22,8 @@ public class BrokerManager {
     private static final String UNREGISTER_QUERY =  "Update Broker SET updated_at = NOW(), status = $1  WHERE id = $2";
     private static final String UNREGISTERBYURL_QUERY =  "Update Broker SET updated_at = NOW(), status = $1  WHERE url = $2";
     private static final String REGISTER_QUERY =  "Update Broker SET updated_at = NOW(), status = $1  WHERE id = $2";
-    private static final String FINDALL_QUERY = "SELECT * FROM Broker";
+    private static final String FINDALL_QUERY = "SELECT b.*, o.type AS delivery_type, o.status AS delivery_status, o.attempts AS delivery_attempts, "
+            + "o.last_error AS delivery_error, o.delivered_at AS delivered_at FROM Broker b LEFT JOIN brokeroutbox o ON o.url = b.url";
     private static final String FINDBYSTATUS_QUERY = "SELECT * FROM Broker WHERE status = $1";
     private static final String FINDBYID_QUERY = "SELECT * FROM Broker WHERE id = $1";
     private static final String FINDBYCREATE_QUERY = "SELECT * FROM Broker WHERE created_at = $1";
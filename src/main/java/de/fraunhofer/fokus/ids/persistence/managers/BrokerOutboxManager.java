@@ -0,0 +1,152 @@
+package de.fraunhofer.fokus.ids.persistence.managers;
+
+import de.fraunhofer.fokus.ids.persistence.util.BrokerNotification;
+import de.fraunhofer.fokus.ids.persistence.util.DatabaseConnector;
+import de.fraunhofer.fokus.ids.persistence.util.DeliveryStatus;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.sqlclient.Tuple;
+
+import java.util.List;
+/**
+ * Persistent outbox of the notifications for the brokers. There is one row per broker URL that holds the latest
+ * notification and its delivery status, so an undelivered notification is superseded by a newer one instead of
+ * being queued behind it. The messages themselves are built when a row is delivered, so they carry the latest state.
+ * Due rows are claimed before they are delivered by moving their next attempt past a lease, so several instances
+ * sharing the database do not deliver the same row. A row whose instance died is picked up again once its lease ran out.
+ * Every write to a row increases its revision. A delivery result is only recorded for the revision it was started
+ * for, a notification written while the delivery was running is released for delivery right away instead.
+ * A row can also carry a prebuilt message, which is sent before its notification. It holds the unregistration of a
+ * connector identity that is replaced, which can no longer be built once the configuration changed. It is kept until
+ * it was delivered, so the identity that was last registered is the one that is removed.
+ * Each delivery stores the catalog the broker holds afterwards with the row, so every instance computes delta updates
+ * against what the broker actually received.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class BrokerOutboxManager {
+
+    private Logger LOGGER = LoggerFactory.getLogger(BrokerOutboxManager.class.getName());
+    private DatabaseConnector databaseConnector;
+
+    //a pending row keeps its backoff, so new notifications do not make a failing broker retry early
+    private static final String ENQUEUE_QUERY = "INSERT INTO brokeroutbox (created_at, updated_at, url, type, status, attempts, revision, next_attempt, payload, payload_type) "
+            + "VALUES (NOW(), NOW(), $1, $2, $3, 0, 0, NOW(), $6, $7) ON CONFLICT (url) DO UPDATE SET updated_at = NOW(), "
+            + "type = CASE WHEN brokeroutbox.status <> $4 AND EXCLUDED.type = $5 THEN brokeroutbox.type ELSE EXCLUDED.type END, "
+            + "payload_type = CASE WHEN brokeroutbox.payload IS NULL THEN EXCLUDED.payload_type ELSE brokeroutbox.payload_type END, "
+            + "payload = COALESCE(brokeroutbox.payload, EXCLUDED.payload), "
+            + "attempts = CASE WHEN brokeroutbox.status = $3 THEN brokeroutbox.attempts ELSE 0 END, "
+            + "next_attempt = CASE WHEN brokeroutbox.status = $3 THEN brokeroutbox.next_attempt ELSE NOW() END, "
+            + "status = $3, revision = brokeroutbox.revision + 1";
+    //rows locked by a concurrent claim are skipped instead of waited for
+    private static final String CLAIMDUE_QUERY = "UPDATE brokeroutbox SET next_attempt = NOW() + $3::float8 * INTERVAL '1 millisecond' "
+            + "WHERE id IN (SELECT id FROM brokeroutbox WHERE status = $1 AND next_attempt <= NOW() ORDER BY next_attempt LIMIT $2 FOR UPDATE SKIP LOCKED) "
+            + "RETURNING *";
+    //a delivered payload is the one still stored, since a stored payload is never replaced
+    private static final String DELIVERED_QUERY = "UPDATE brokeroutbox SET updated_at = NOW(), last_error = NULL, delivered_at = NOW(), "
+            + "status = CASE WHEN revision = $3 THEN $1 ELSE status END, "
+            + "attempts = CASE WHEN revision = $3 THEN attempts + 1 ELSE 0 END, "
+            + "next_attempt = CASE WHEN revision = $3 THEN next_attempt ELSE NOW() END, "
+            + "payload = CASE WHEN $4 THEN NULL ELSE payload END, snapshot = $5 WHERE id = $2";
+    private static final String FAILED_QUERY = "UPDATE brokeroutbox SET updated_at = NOW(), status = CASE WHEN revision = $5 THEN $1 ELSE status END, "
+            + "attempts = attempts + 1, last_error = $2, next_attempt = NOW() + $3::float8 * INTERVAL '1 millisecond', "
+            + "payload = CASE WHEN $6 THEN NULL ELSE payload END, snapshot = $7 WHERE id = $4";
+
+    public BrokerOutboxManager() {
+        databaseConnector = DatabaseConnector.getInstance();
+    }
+
+    public void enqueue(String url, BrokerNotification notification, Handler<AsyncResult<Void>> resultHandler){
+        enqueue(url, notification, null, null, resultHandler);
+    }
+
+    /**
+     * Writes the notification together with a message that is sent before it, unless the row still holds an
+     * undelivered one.
+     */
+    public void enqueue(String url, BrokerNotification notification, String payload, String payloadType, Handler<AsyncResult<Void>> resultHandler){
+        Tuple params = Tuple.tuple()
+                .addString(url)
+                .addString(notification.name())
+                .addString(DeliveryStatus.PENDING.name())
+                .addString(DeliveryStatus.DELIVERED.name())
+                .addString(BrokerNotification.UPDATE.name())
+                .addString(payload)
+                .addString(payloadType);
+
+        databaseConnector.query(ENQUEUE_QUERY, params, reply -> {
+            if (reply.failed()) {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            } else {
+                resultHandler.handle(Future.succeededFuture());
+            }
+        });
+    }
+
+    /**
+     * Claims up to limit due rows for the given lease (milliseconds). The lease has to outlast the delivery, otherwise
+     * another instance may deliver the row a second time.
+     */
+    public void claimDue(int limit, long lease, Handler<AsyncResult<List<JsonObject>>> resultHandler){
+        Tuple params = Tuple.tuple()
+                .addString(DeliveryStatus.PENDING.name())
+                .addInteger(limit)
+                .addDouble((double) lease);
+
+        databaseConnector.query(CLAIMDUE_QUERY, params, reply -> {
+            if (reply.failed()) {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            } else {
+                resultHandler.handle(Future.succeededFuture(reply.result()));
+            }
+        });
+    }
+
+    /**
+     * Records a delivered row together with the catalog the broker holds now, null if it is unknown.
+     */
+    public void delivered(long id, int revision, boolean payloadDelivered, JsonObject snapshot, Handler<AsyncResult<Void>> resultHandler){
+        Tuple params = Tuple.tuple()
+                .addString(DeliveryStatus.DELIVERED.name())
+                .addLong(id)
+                .addInteger(revision)
+                .addBoolean(payloadDelivered)
+                .addValue(snapshot);
+
+        performUpdate(DELIVERED_QUERY, params, resultHandler);
+    }
+
+    /**
+     * Records a failed delivery. The row is retried after the given delay, unless it is marked as FAILED. A row written
+     * since the claim stays PENDING, but keeps the backoff of the broker. A payload that got through is not sent again.
+     */
+    public void failed(long id, int revision, boolean payloadDelivered, JsonObject snapshot, String error, long retryDelay, boolean giveUp, Handler<AsyncResult<Void>> resultHandler){
+        Tuple params = Tuple.tuple()
+                .addString(giveUp ? DeliveryStatus.FAILED.name() : DeliveryStatus.PENDING.name())
+                .addString(error)
+                .addDouble((double) retryDelay)
+                .addLong(id)
+                .addInteger(revision)
+                .addBoolean(payloadDelivered)
+                .addValue(snapshot);
+
+        performUpdate(FAILED_QUERY, params, resultHandler);
+    }
+
+    private void performUpdate(String query, Tuple params, Handler<AsyncResult<Void>> resultHandler){
+        databaseConnector.query(query, params, reply -> {
+            if (reply.failed()) {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            } else {
+                resultHandler.handle(Future.succeededFuture());
+            }
+        });
+    }
+}
@@ -1,6 +1,7 @@
 package de.fraunhofer.fokus.ids.persistence.managers;
 
 import de.fraunhofer.fokus.ids.persistence.util.DatabaseConnector;
+import de.fraunhofer.fokus.ids.persistence.util.ReferenceCache;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -15,12 +16,20 @@ public class ConfigManager {
     private Logger LOGGER = LoggerFactory.getLogger(ConfigManager.class.getName());
 
     private DatabaseConnector databaseConnector;
+    private static final String CACHE_KEY = "configuration";
 
     public ConfigManager(){
         this.databaseConnector = DatabaseConnector.getInstance();
     }
 
+    /**
+     * Reads the configuration row through the ReferenceCache. Callers get a copy they are free to change.
+     */
     public void get(Handler<AsyncResult<JsonObject>> resultHandler){
+        ReferenceCache.getInstance().<JsonObject>get(CACHE_KEY, this::load, reply -> resultHandler.handle(reply.map(JsonObject::copy)));
+    }
+
+    private void load(Handler<AsyncResult<JsonObject>> resultHandler){
         databaseConnector.query("SELECT * FROM configuration", Tuple.tuple(),reply -> {
             if(reply.succeeded()){
                 if(reply.result().size()>0) {
@@ -41,6 +50,7 @@ public class ConfigManager {
     public void edit(Tuple params, Handler<AsyncResult<Void>> resultHandler) {
         databaseConnector.query("UPDATE configuration SET title = $1, maintainer = $2, curator = $3, url = $4, country = $5 WHERE id = $6", params, reply -> {
             if(reply.succeeded()) {
+                ReferenceCache.getInstance().invalidate(CACHE_KEY);
                 resultHandler.handle(Future.succeededFuture());
             } else {
                 resultHandler.handle(Future.failedFuture(reply.cause()));
@@ -54,6 +64,7 @@ public class ConfigManager {
                 LOGGER.error(reply.cause());
                 resultHandler.handle(Future.failedFuture(reply.cause()));
             } else {
+                ReferenceCache.getInstance().invalidate(CACHE_KEY);
                 resultHandler.handle(Future.succeededFuture());
             }
         });
@@ -1,22 +1,29 @@
 package de.fraunhofer.fokus.ids.persistence.managers;
 
+import de.fraunhofer.fokus.ids.models.ResolvedArtifact;
 import de.fraunhofer.fokus.ids.persistence.entities.Dataset;
 import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
 import de.fraunhofer.fokus.ids.persistence.enums.DataAssetStatus;
 import de.fraunhofer.fokus.ids.persistence.util.DatabaseConnector;
+import de.fraunhofer.fokus.ids.persistence.util.EntityMapper;
+import de.fraunhofer.fokus.ids.persistence.util.NegativeCache;
 import io.vertx.core.*;
-import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.SqlClient;
 import io.vertx.sqlclient.Tuple;
 
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 import static de.fraunhofer.fokus.ids.persistence.util.Functions.checkNull;
 /**
@@ -32,36 +39,79 @@ public class DataAssetManager {
 	private static final String FINDBYDATASETRESOURCEID_QUERY = "SELECT * FROM Dataset WHERE resourceid = $1";
 	private static final String FINDPUBLISHED_QUERY = "SELECT * FROM Dataset WHERE status = $1";
 	private static final String FINDALL_QUERY = "SELECT * FROM Dataset ORDER BY id DESC";
+	private static final String FINDPAGE_QUERY = "SELECT * FROM Dataset WHERE id < $1 ORDER BY id DESC LIMIT $2";
 	private static final String COUNT_QUERY = "SELECT COUNT(d) FROM Dataset d";
 	private static final String COUNTPUBLISHED_QUERY = "SELECT COUNT(d) FROM Dataset d WHERE d.status = $1";
 	private static final String CHANGESTATUS_UPDATE = "UPDATE Dataset SET status = $1, updated_at = NOW() WHERE id = $2";
-	private static final String FINDDISTRIBUTIONBYDATASETID_QUERY = "SELECT * FROM Distribution WHERE datasetId = $1";
+	private static final String CHANGEALLSTATUS_UPDATE = "UPDATE Dataset SET status = $1, updated_at = NOW() WHERE status <> $1";
+	private static final String FINDDISTRIBUTIONSBYDATASETIDS_QUERY = "SELECT * FROM Distribution WHERE datasetid = ANY($1) ORDER BY datasetid, id";
 	private static final String INSERT_DATASET = "INSERT INTO Dataset (created_at, updated_at, resourceid, license, title, description, publisher, status, tags, version, sourceid) " +
 			"VALUES (NOW(), NOW(), $1, $2, $3, $4, $5, $6, $7, $8, $9)";
 	private static final String INSERT_DISTRIBUTION = "INSERT INTO Distribution (created_at, updated_at, resourceid, license, title, description, publisher, filename, filetype, datasetid) " +
 			"VALUES (NOW(), NOW(), $1, $2, $3, $4, $5, $6, $7, $8)";
 
+	private static final String RESOLVEARTIFACT_QUERY = "SELECT dist.*, " +
+			"ds.id AS dataset_id, ds.created_at AS dataset_created_at, ds.updated_at AS dataset_updated_at, ds.resourceid AS dataset_resourceid, " +
+			"ds.license AS dataset_license, ds.title AS dataset_title, ds.description AS dataset_description, ds.publisher AS dataset_publisher, " +
+			"ds.status AS dataset_status, ds.tags AS dataset_tags, ds.version AS dataset_version, ds.sourceid AS dataset_sourceid, " +
+			"src.id AS datasource_id, src.created_at AS datasource_created_at, src.updated_at AS datasource_updated_at, " +
+			"src.datasourcename AS datasource_datasourcename, src.data AS datasource_data, src.datasourcetype AS datasource_datasourcetype " +
+			"FROM Distribution dist JOIN Dataset ds ON ds.resourceid = dist.datasetid JOIN DataSource src ON src.id = ds.sourceid " +
+			"WHERE dist.id = $1";
+
 	private static final String DELETE_DAT_UPDATE = "DELETE FROM dataset WHERE id = $1";
 	private static final String DELETE_DIST_UPDATE = "DELETE FROM distribution WHERE datasetid = $1";
 
+	//distribution ids that resolved to nothing, shared by all instances and cleared on every insert
+	private static final NegativeCache UNKNOWN_DISTRIBUTIONS = new NegativeCache(10000, 60 * 1000);
+
 	public DataAssetManager() {
 		databaseConnector = DatabaseConnector.getInstance();
 	}
 
-	public void findDatasetById(Long id, Handler<AsyncResult<JsonObject>> resultHandler) {
-		querySingleEntry(id, FINDBYDATASETID_QUERY,resultHandler);
+	/**
+	 * Loads a distribution with its dataset and data source in one query. Ids that were not found recently are rejected
+	 * without asking the database.
+	 */
+	public void resolveArtifact(Long distributionId, Handler<AsyncResult<ResolvedArtifact>> resultHandler) {
+		if(UNKNOWN_DISTRIBUTIONS.contains(distributionId)){
+			resultHandler.handle(Future.failedFuture("Id not in database"));
+			return;
+		}
+		databaseConnector.query(RESOLVEARTIFACT_QUERY, Tuple.tuple().addLong(distributionId),
+				row -> new ResolvedArtifact(EntityMapper.toDistribution(row), EntityMapper.toDataset(row, "dataset_"), EntityMapper.toDataSource(row, "datasource_")), reply -> {
+			if (reply.failed()) {
+				LOGGER.error(reply.cause());
+				resultHandler.handle(Future.failedFuture(reply.cause()));
+			} else if(reply.result().isEmpty()){
+				UNKNOWN_DISTRIBUTIONS.add(distributionId);
+				resultHandler.handle(Future.failedFuture("Id not in database"));
+			} else {
+				resultHandler.handle(Future.succeededFuture(reply.result().get(0)));
+			}
+		});
+	}
+
+	public static JsonObject getUnknownIdMetrics() {
+		return new JsonObject()
+				.put("hits", UNKNOWN_DISTRIBUTIONS.getHits())
+				.put("size", UNKNOWN_DISTRIBUTIONS.size());
 	}
 
-	public void findDatasetByResourceId(String resourceId, Handler<AsyncResult<JsonObject>> resultHandler) {
-		querySingleEntry(resourceId, FINDBYDATASETRESOURCEID_QUERY,resultHandler);
+	public void findDatasetById(Long id, Handler<AsyncResult<Dataset>> resultHandler) {
+		querySingleEntry(id, FINDBYDATASETID_QUERY, EntityMapper::toDataset, resultHandler);
 	}
 
-	public void findDistributionById(Long id, Handler<AsyncResult<JsonObject>> resultHandler) {
-		querySingleEntry(id, FINDBYDISTRIBUTIONID_QUERY,resultHandler);
+	public void findDatasetByResourceId(String resourceId, Handler<AsyncResult<Dataset>> resultHandler) {
+		querySingleEntry(resourceId, FINDBYDATASETRESOURCEID_QUERY, EntityMapper::toDataset, resultHandler);
 	}
 
-	private void querySingleEntry(Object id, String query, Handler<AsyncResult<JsonObject>> resultHandler){
-		databaseConnector.query(query, Tuple.tuple().addValue(id),reply -> {
+	public void findDistributionById(Long id, Handler<AsyncResult<Distribution>> resultHandler) {
+		querySingleEntry(id, FINDBYDISTRIBUTIONID_QUERY, EntityMapper::toDistribution, resultHandler);
+	}
+
+	private <T> void querySingleEntry(Object id, String query, Function<Row, T> mapper, Handler<AsyncResult<T>> resultHandler){
+		databaseConnector.query(query, Tuple.tuple().addValue(id), mapper, reply -> {
 			if (reply.failed()) {
 				LOGGER.error(reply.cause());
 				resultHandler.handle(Future.failedFuture(reply.cause()));
@@ -75,28 +125,15 @@ public class DataAssetManager {
 		});
 	}
 
-	private void findDatasetList(String query, Tuple tuple, Handler<AsyncResult<JsonArray>> resultHandler){
-		databaseConnector.query(query, tuple, reply -> {
+	private void findDatasetList(String query, Tuple tuple, Handler<AsyncResult<List<Dataset>>> resultHandler){
+		databaseConnector.query(query, tuple, EntityMapper::toDataset, reply -> {
 			if (reply.failed()) {
 				LOGGER.error(reply.cause());
 				resultHandler.handle(Future.failedFuture(reply.cause().toString()));
 			} else {
-				JsonArray jA = new JsonArray(reply.result());
-				Iterator iterator = jA.iterator();
-				List<Future> datasetFutureList = new ArrayList<>();
-				while(iterator.hasNext()){
-					Promise<Dataset> promise = Promise.promise();
-					datasetFutureList.add(promise.future());
-					Dataset da = Json.decodeValue(iterator.next().toString(), Dataset.class);
-					buildDataset(da, promise);
-				}
-				CompositeFuture.all(datasetFutureList).onComplete( ac -> {
+				buildDatasets(reply.result(), ac -> {
 					if(ac.succeeded()){
-						List<Dataset> datasetList = new ArrayList<>();
-						for(Future fu : datasetFutureList){
-							datasetList.add((Dataset)fu.result());
-						}
-						resultHandler.handle(Future.succeededFuture(new JsonArray(Json.encode(datasetList))));
+						resultHandler.handle(Future.succeededFuture(ac.result()));
 					} else {
 						LOGGER.error(ac.cause());
 						resultHandler.handle(Future.failedFuture(ac.cause()));
@@ -106,26 +143,69 @@ public class DataAssetManager {
 		});
 	}
 
-	public void findPublished(Handler<AsyncResult<JsonArray>> resultHandler) {
+	public void findPublished(Handler<AsyncResult<List<Dataset>>> resultHandler) {
 		findDatasetList(FINDPUBLISHED_QUERY, Tuple.tuple().addInteger(DataAssetStatus.PUBLISHED.ordinal()), resultHandler);
 	}
 
-	private void buildDataset(Dataset da, Handler<AsyncResult<Dataset>> next) {
-		databaseConnector.query(FINDDISTRIBUTIONBYDATASETID_QUERY, Tuple.tuple().addString(da.getResourceId()), reply2 -> {
-			if(reply2.succeeded()){
-				Set<Distribution> dists = reply2.result().stream().map(jO -> Json.decodeValue(jO.toString(), Distribution.class)).collect(Collectors.toSet());
-				da.setDistributions(dists);
-				next.handle(Future.succeededFuture(da));
+	private void buildDatasets(List<Dataset> datasetList, Handler<AsyncResult<List<Dataset>>> next) {
+		buildDatasets(null, datasetList, next);
+	}
+
+	/**
+	 * Attaches the distributions to the datasets. They are loaded on the given client, or on the pool if it is null.
+	 */
+	private void buildDatasets(SqlClient sqlClient, List<Dataset> datasetList, Handler<AsyncResult<List<Dataset>>> next) {
+		if(datasetList.isEmpty()){
+			next.handle(Future.succeededFuture(datasetList));
+			return;
+		}
+		String[] resourceIds = datasetList.stream().map(Dataset::getResourceId).toArray(String[]::new);
+		Tuple params = Tuple.tuple().addStringArray(resourceIds);
+		Handler<AsyncResult<List<Distribution>>> distributionHandler = reply -> {
+			if(reply.succeeded()){
+				Map<String, Set<Distribution>> distributionMap = new HashMap<>();
+				for(Distribution distribution : reply.result()){
+					//keeps the order of the query, so the serialized resources and their ETags are stable
+					distributionMap.computeIfAbsent(distribution.getDatasetId(), k -> new LinkedHashSet<>()).add(distribution);
+				}
+				for(Dataset da : datasetList){
+					da.setDistributions(distributionMap.getOrDefault(da.getResourceId(), new HashSet<>()));
+				}
+				next.handle(Future.succeededFuture(datasetList));
 			} else {
-				next.handle(Future.failedFuture(reply2.cause()));
+				next.handle(Future.failedFuture(reply.cause()));
 			}
-		});
+		};
+		if(sqlClient == null){
+			databaseConnector.query(FINDDISTRIBUTIONSBYDATASETIDS_QUERY, params, EntityMapper::toDistribution, distributionHandler);
+		} else {
+			databaseConnector.query(sqlClient, FINDDISTRIBUTIONSBYDATASETIDS_QUERY, params, EntityMapper::toDistribution, distributionHandler);
+		}
 	}
 
-	public void findAll(Handler<AsyncResult<JsonArray>> resultHandler) {
+	public void findAll(Handler<AsyncResult<List<Dataset>>> resultHandler) {
 		findDatasetList(FINDALL_QUERY, Tuple.tuple(), resultHandler);
 	}
 
+	public void findPage(Long afterId, int limit, Handler<AsyncResult<List<Dataset>>> resultHandler) {
+		findDatasetList(FINDPAGE_QUERY, Tuple.tuple().addLong(afterId == null ? Long.MAX_VALUE : afterId).addLong((long) limit), resultHandler);
+	}
+
+	public void streamAll(Function<List<Dataset>, Future<Void>> chunkHandler, Handler<AsyncResult<Void>> resultHandler) {
+		databaseConnector.stream(FINDALL_QUERY, Tuple.tuple(), EntityMapper::toDataset, (transaction, chunk) -> {
+			Promise<Void> chunkPromise = Promise.promise();
+			//the cursor holds a connection already, the distributions are read on it instead of a second one
+			buildDatasets(transaction, chunk, ac -> {
+				if(ac.succeeded()){
+					chunkHandler.apply(ac.result()).onComplete(chunkPromise);
+				} else {
+					chunkPromise.fail(ac.cause());
+				}
+			});
+			return chunkPromise.future();
+		}, resultHandler);
+	}
+
 	public void count(Handler<AsyncResult<Long>> resultHandler) {
 		databaseConnector.query(COUNT_QUERY, Tuple.tuple(), reply -> {
 			if (reply.failed()) {
@@ -159,12 +239,67 @@ public class DataAssetManager {
 		});
 	}
 
+	/**
+	 * Sets the status of every dataset in one statement and reports how many rows actually changed.
+	 */
+	public void changeAllStatus(DataAssetStatus status, Handler<AsyncResult<Integer>> resultHandler) {
+		databaseConnector.update(CHANGEALLSTATUS_UPDATE, Tuple.tuple().addInteger(status.ordinal()), reply -> {
+			if (reply.failed()) {
+				LOGGER.error(reply.cause());
+				resultHandler.handle(Future.failedFuture(reply.cause().toString()));
+			} else {
+				resultHandler.handle(Future.succeededFuture(reply.result()));
+			}
+		});
+	}
 
-	public void add(JsonObject dataAssetJson, Handler<AsyncResult<Void>> resultHandler) {
+	public void add(Dataset dataAsset, Handler<AsyncResult<Void>> resultHandler) {
+		addAll(Collections.singletonList(dataAsset), resultHandler);
+	}
 
-		Dataset dataAsset = Json.decodeValue(dataAssetJson.toString(),Dataset.class);
+	/**
+	 * Inserts the datasets and all of their distributions in one transaction, sending each table's rows as a single batch.
+	 */
+	public void addAll(List<Dataset> dataAssets, Handler<AsyncResult<Void>> resultHandler) {
+		if(dataAssets.isEmpty()){
+			resultHandler.handle(Future.succeededFuture());
+			return;
+		}
+		List<Tuple> datasetParams = new ArrayList<>(dataAssets.size());
+		List<Tuple> distributionParams = new ArrayList<>();
+		for(Dataset dataAsset : dataAssets){
+			datasetParams.add(toDatasetParams(dataAsset));
+			if(dataAsset.getDistributions() != null){
+				for(Distribution distribution : dataAsset.getDistributions()){
+					distributionParams.add(toDistributionParams(distribution, dataAsset.getResourceId()));
+				}
+			}
+		}
 
-		Tuple datasetParams = Tuple.tuple()
+		databaseConnector.<Void>withTransaction(transaction -> {
+			Promise<Void> datasetPromise = Promise.promise();
+			databaseConnector.batch(transaction, INSERT_DATASET, datasetParams, datasetPromise);
+			return datasetPromise.future().compose(v -> {
+				if(distributionParams.isEmpty()){
+					return Future.succeededFuture();
+				}
+				Promise<Void> distributionPromise = Promise.promise();
+				databaseConnector.batch(transaction, INSERT_DISTRIBUTION, distributionParams, distributionPromise);
+				return distributionPromise.future();
+			});
+		}, reply -> {
+			if (reply.failed()) {
+				LOGGER.error(reply.cause());
+				resultHandler.handle(Future.failedFuture(reply.cause().toString()));
+			} else {
+				UNKNOWN_DISTRIBUTIONS.clear();
+				resultHandler.handle(Future.succeededFuture());
+			}
+		});
+	}
+
+	private Tuple toDatasetParams(Dataset dataAsset) {
+		return Tuple.tuple()
 				.addString(checkNull(dataAsset.getResourceId()))
 				.addString(checkNull(dataAsset.getLicense()))
 				.addString(checkNull(dataAsset.getTitle()))
@@ -174,46 +309,33 @@ public class DataAssetManager {
 				.addStringArray(dataAsset.getTags() == null ||dataAsset.getTags().isEmpty() ? new String[0] : dataAsset.getTags().toArray(new String[0]))
 				.addString(checkNull(dataAsset.getVersion()))
 				.addLong(dataAsset.getSourceId());
+	}
 
-		databaseConnector.query(INSERT_DATASET, datasetParams, reply -> {
-			if (reply.failed()) {
-				LOGGER.error(reply.cause());
-				resultHandler.handle(Future.failedFuture(reply.cause().toString()));
-			} else {
-				resultHandler.handle(Future.succeededFuture());
-			}
-		});
-
-		for(Distribution distribution : dataAsset.getDistributions()){
-
-			Tuple distributionParams = Tuple.tuple()
-					.addString(checkNull(distribution.getResourceId()))
-					.addString(checkNull(distribution.getLicense()))
-					.addString(checkNull(distribution.getTitle()))
-					.addString(checkNull(distribution.getDescription()))
-					.addString(checkNull(distribution.getPublisher()))
-					.addString(checkNull(distribution.getFilename()))
-					.addString(checkNull(distribution.getFiletype()))
-					.addString(checkNull(dataAsset.getResourceId()));
-
-			databaseConnector.query(INSERT_DISTRIBUTION, distributionParams, reply -> {
-				if (reply.failed()) {
-					LOGGER.error(reply.cause());
-					resultHandler.handle(Future.failedFuture(reply.cause().toString()));
-				} else {
-					resultHandler.handle(Future.succeededFuture());
-				}
-			});
-		}
+	private Tuple toDistributionParams(Distribution distribution, String datasetResourceId) {
+		return Tuple.tuple()
+				.addString(checkNull(distribution.getResourceId()))
+				.addString(checkNull(distribution.getLicense()))
+				.addString(checkNull(distribution.getTitle()))
+				.addString(checkNull(distribution.getDescription()))
+				.addString(checkNull(distribution.getPublisher()))
+				.addString(checkNull(distribution.getFilename()))
+				.addString(checkNull(distribution.getFiletype()))
+				.addString(checkNull(datasetResourceId));
 	}
 
 	public void delete(Long id, Handler<AsyncResult<Void>> resultHandler) {
 
 		findDatasetById(id, daReply -> {
 			if(daReply.succeeded()){
-				databaseConnector.query(DELETE_DIST_UPDATE, Tuple.tuple().addString(daReply.result().getString("resourceid")), distReply -> {});
-				databaseConnector.query(DELETE_DAT_UPDATE, Tuple.tuple().addLong(id), datReply -> {});
-				resultHandler.handle(Future.succeededFuture());
+				databaseConnector.<Void>withTransaction(transaction -> {
+					Promise<List<JsonObject>> distPromise = Promise.promise();
+					databaseConnector.query(transaction, DELETE_DIST_UPDATE, Tuple.tuple().addString(daReply.result().getResourceId()), distPromise);
+					return distPromise.future().compose(v -> {
+						Promise<List<JsonObject>> datPromise = Promise.promise();
+						databaseConnector.query(transaction, DELETE_DAT_UPDATE, Tuple.tuple().addLong(id), datPromise);
+						return datPromise.future().mapEmpty();
+					});
+				}, resultHandler);
 
 			} else {
 				LOGGER.error(daReply.cause());
@@ -2,6 +2,8 @@ package de.fraunhofer.fokus.ids.persistence.managers;
 
 import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
 import de.fraunhofer.fokus.ids.persistence.util.DatabaseConnector;
+import de.fraunhofer.fokus.ids.persistence.util.EntityMapper;
+import de.fraunhofer.fokus.ids.persistence.util.ReferenceCache;
 import io.vertx.core.*;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -9,6 +11,10 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.sqlclient.Tuple;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
 import static de.fraunhofer.fokus.ids.persistence.util.Functions.checkNull;
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -18,6 +24,7 @@ public class DataSourceManager {
     private DatabaseConnector databaseConnector;
     private Logger LOGGER = LoggerFactory.getLogger(DataSourceManager.class.getName());
 
+    private static final String CACHE_PREFIX = "datasource:";
     private static final String UPDATE_QUERY = "UPDATE DataSource SET updated_at = NOW(), datasourcename = $1, data = $2, datasourcetype = $3 WHERE id = $4";
     private static final String ADD_QUERY = "INSERT INTO DataSource (created_at, updated_at, datasourcename, data, datasourcetype) values (NOW(), NOW(), $1, $2::JSON, $3)";
     private static final String DELETE_QUERY = "DELETE FROM datasource WHERE id = $1";
@@ -26,6 +33,8 @@ public class DataSourceManager {
     private static final String FINDALL_QUERY ="SELECT * FROM DataSource ORDER BY id DESC";
     private static final String FINDTYPEBYID_QUERY = "SELECT datasourcetype FROM DataSource WHERE id = $1";
     private static final String FINDALLBYTYPE_QUERY = "SELECT * FROM DataSource ORDER BY datasourcetype";
+    private static final String FINDALLBYTYPEORDERED_QUERY = "SELECT * FROM DataSource ORDER BY datasourcetype, id DESC";
+    private static final String FINDPAGE_QUERY = "SELECT * FROM DataSource WHERE id < $1 ORDER BY id DESC LIMIT $2";
 
     public DataSourceManager() {
         this.databaseConnector = DatabaseConnector.getInstance();
@@ -44,6 +53,7 @@ public class DataSourceManager {
                 LOGGER.error(reply.cause());
                 resultHandler.handle(Future.failedFuture(reply.cause().toString()));
             } else {
+                ReferenceCache.getInstance().invalidate(CACHE_PREFIX);
                 resultHandler.handle(Future.succeededFuture());
             }
         });
@@ -62,6 +72,7 @@ public class DataSourceManager {
                 LOGGER.error(reply.cause());
                 resultHandler.handle(Future.failedFuture(reply.cause().toString()));
             } else {
+                ReferenceCache.getInstance().invalidate(CACHE_PREFIX);
                 resultHandler.handle(Future.succeededFuture());
             }
         });
@@ -73,6 +84,7 @@ public class DataSourceManager {
                 LOGGER.error(reply.cause());
                 resultHandler.handle(Future.failedFuture(reply.cause().toString()));
             } else {
+                ReferenceCache.getInstance().invalidate(CACHE_PREFIX);
                 resultHandler.handle(Future.succeededFuture());
             }
         });
@@ -100,6 +112,37 @@ public class DataSourceManager {
         });
     }
 
+    /**
+     * Reads the data sources of a type through the ReferenceCache. The returned list is shared and must not be changed.
+     */
+    public void findDataSourcesByType(String type, Handler<AsyncResult<List<DataSource>>> resultHandler) {
+        ReferenceCache.getInstance().get(CACHE_PREFIX + "type:" + type, handler -> loadDataSourcesByType(type, handler), resultHandler);
+    }
+
+    private void loadDataSourcesByType(String type, Handler<AsyncResult<List<DataSource>>> resultHandler) {
+        databaseConnector.query(FINDBYTYPE_QUERY, Tuple.tuple().addString(type), EntityMapper::toDataSource, reply -> {
+            if (reply.failed()) {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause().toString()));
+            } else {
+                resultHandler.handle(Future.succeededFuture(Collections.unmodifiableList(reply.result())));
+            }
+        });
+    }
+
+    public void findDataSourceById(Long id, Handler<AsyncResult<DataSource>> resultHandler) {
+        databaseConnector.query(FINDBYID_QUERY, Tuple.tuple().addLong(id), EntityMapper::toDataSource, reply -> {
+            if (reply.failed()) {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause().toString()));
+            } else if (reply.result().isEmpty()) {
+                resultHandler.handle(Future.failedFuture("Id not in database"));
+            } else {
+                resultHandler.handle(Future.succeededFuture(reply.result().get(0)));
+            }
+        });
+    }
+
     public void findAll(Handler<AsyncResult<JsonArray>> resultHandler) {
         databaseConnector.query(FINDALL_QUERY ,Tuple.tuple(), reply -> {
             if (reply.failed()) {
@@ -128,17 +171,38 @@ public class DataSourceManager {
                 LOGGER.error(reply.cause());
                 resultHandler.handle(Future.failedFuture(reply.cause().toString()));
             } else {
+                resultHandler.handle(Future.succeededFuture(groupByType(reply.result())));
+            }
+        });
+    }
 
-                JsonObject res = new JsonObject();
-                for(JsonObject jsonObject : reply.result()){
-                    if(!res.containsKey(jsonObject.getString("datasourcetype"))){
-                        res.put(jsonObject.getString("datasourcetype"), new JsonArray());
-                    }
-                    res.getJsonArray(jsonObject.getString("datasourcetype")).add(jsonObject);
-                }
-                resultHandler.handle(Future.succeededFuture(res));
+    public void findPageByType(Long afterId, int limit, Handler<AsyncResult<JsonObject>> resultHandler) {
+        databaseConnector.query(FINDPAGE_QUERY, Tuple.tuple().addLong(afterId == null ? Long.MAX_VALUE : afterId).addLong((long) limit), reply -> {
+            if (reply.failed()) {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause().toString()));
+            } else {
+                resultHandler.handle(Future.succeededFuture(groupByType(reply.result())));
             }
         });
     }
 
+    /**
+     * Streams all data sources ordered by type, so that all rows of one type arrive consecutively.
+     */
+    public void streamAllByType(Function<List<JsonObject>, Future<Void>> chunkHandler, Handler<AsyncResult<Void>> resultHandler) {
+        databaseConnector.stream(FINDALLBYTYPEORDERED_QUERY, Tuple.tuple(), chunkHandler, resultHandler);
+    }
+
+    private JsonObject groupByType(List<JsonObject> dataSources) {
+        JsonObject res = new JsonObject();
+        for(JsonObject jsonObject : dataSources){
+            if(!res.containsKey(jsonObject.getString("datasourcetype"))){
+                res.put(jsonObject.getString("datasourcetype"), new JsonArray());
+            }
+            res.getJsonArray(jsonObject.getString("datasourcetype")).add(jsonObject);
+        }
+        return res;
+    }
+
 }
\ No newline at end of file
@@ -12,6 +12,8 @@ import io.vertx.core.logging.LoggerFactory;
 import io.vertx.sqlclient.Tuple;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
  */
@@ -22,6 +24,8 @@ public class JobManager {
 
 	private static final String ADD_QUERY = "INSERT INTO job (created_at,updated_at,data,status,sourceid, sourcetype) values (NOW(), NOW(), $1, $2, $3, $4) RETURNING id";
 	private static final String FINDALL_QUERY = "SELECT * FROM job";
+	private static final String FINDALLORDERED_QUERY = "SELECT * FROM job ORDER BY id DESC";
+	private static final String FINDPAGE_QUERY = "SELECT * FROM job WHERE id < $1 ORDER BY id DESC LIMIT $2";
 	private static final String DELETEALL_QUERY = "DELETE FROM job";
 	private static final String UPDATESTATUS_QUERY = "UPDATE job SET status = $1, updated_at = NOW() WHERE id = $2";
 
@@ -59,6 +63,21 @@ public class JobManager {
 		});
 	}
 
+	public void findPage(Long afterId, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		databaseConnector.query(FINDPAGE_QUERY, Tuple.tuple().addLong(afterId == null ? Long.MAX_VALUE : afterId).addLong((long) limit), reply -> {
+			if (reply.failed()) {
+				LOGGER.error(reply.cause());
+				resultHandler.handle(Future.failedFuture(reply.cause().toString()));
+			} else {
+				resultHandler.handle(Future.succeededFuture(new JsonArray(reply.result())));
+			}
+		});
+	}
+
+	public void streamAll(Function<List<JsonObject>, Future<Void>> chunkHandler, Handler<AsyncResult<Void>> resultHandler) {
+		databaseConnector.stream(FINDALLORDERED_QUERY, Tuple.tuple(), chunkHandler, resultHandler);
+	}
+
 	public void deleteAll(Handler<AsyncResult<Void>> resultHandler) {
 		databaseConnector.query(DELETEALL_QUERY, Tuple.tuple(), reply -> {
 			if (reply.failed()) {
@@ -0,0 +1,12 @@
+package de.fraunhofer.fokus.ids.persistence.util;
+/**
+ * The notifications the broker outbox delivers. SUBSCRIBE and UNSUBSCRIBE are never replaced by a later UPDATE of the
+ * same broker that is still undelivered, since they decide whether the connector is listed at all.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public enum BrokerNotification {
+    SUBSCRIBE,
+    UPDATE,
+    UNSUBSCRIBE
+}
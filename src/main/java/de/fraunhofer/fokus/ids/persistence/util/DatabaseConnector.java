@@ -3,19 +3,20 @@ package de.fraunhofer.fokus.ids.persistence.util;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.ext.sql.ResultSet;
-import io.vertx.ext.sql.SQLConnection;
 import io.vertx.pgclient.PgConnectOptions;
 import io.vertx.pgclient.PgPool;
 import io.vertx.sqlclient.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
  */
@@ -23,8 +24,19 @@ public class DatabaseConnector {
 
     private Logger LOGGER = LoggerFactory.getLogger(DatabaseConnector.class.getName());
     private PgPool client;
+    //listings are read at the pace of the HTTP client, so they get connections of their own
+    private PgPool streamClient;
+    private Vertx vertx;
     private RowTransformer rowTransformer;
     private static final DatabaseConnector DBC = new DatabaseConnector();
+    private static final int DEFAULT_PREPARED_STATEMENT_CACHE_SIZE = 256;
+    private static final int DEFAULT_PIPELINING_LIMIT = 256;
+    private static final int DEFAULT_STREAM_CHUNK_SIZE = 100;
+    private static final int DEFAULT_STREAM_POOL_SIZE = 2;
+    private static final int DEFAULT_STREAM_QUEUE_SIZE = 16;
+    private static final long DEFAULT_STREAM_CHUNK_TIMEOUT = 30000;
+    private int streamChunkSize = DEFAULT_STREAM_CHUNK_SIZE;
+    private long streamChunkTimeout = DEFAULT_STREAM_CHUNK_TIMEOUT;
 
     private DatabaseConnector() {
         this.rowTransformer = new RowTransformer();
@@ -40,35 +52,225 @@ public class DatabaseConnector {
                     .setHost(config.getString("host"))
                     .setDatabase(config.getString("database"))
                     .setUser(config.getString("user"))
-                    .setPassword(config.getString("password"));
+                    .setPassword(config.getString("password"))
+                    .setCachePreparedStatements(config.getBoolean("cachepreparedstatements", true))
+                    .setPreparedStatementCacheMaxSize(config.getInteger("preparedstatementcachesize", DEFAULT_PREPARED_STATEMENT_CACHE_SIZE))
+                    .setPipeliningLimit(config.getInteger("pipelininglimit", DEFAULT_PIPELINING_LIMIT));
 
             PoolOptions poolOptions = new PoolOptions()
                     .setMaxSize(maxPoolSize);
 
             this.client = PgPool.pool(vertx, connectOptions, poolOptions);
+            this.streamClient = PgPool.pool(vertx, connectOptions, new PoolOptions()
+                    .setMaxSize(config.getInteger("streampoolsize", DEFAULT_STREAM_POOL_SIZE))
+                    .setMaxWaitQueueSize(config.getInteger("streamqueuesize", DEFAULT_STREAM_QUEUE_SIZE)));
+            this.vertx = vertx;
+            this.streamChunkSize = config.getInteger("streamchunksize", DEFAULT_STREAM_CHUNK_SIZE);
+            this.streamChunkTimeout = config.getLong("streamchunktimeout", DEFAULT_STREAM_CHUNK_TIMEOUT);
+            if(config.getBoolean("listennotify", false)) {
+                ReferenceCache.getInstance().listen(vertx, connectOptions);
+            }
         } else {
             LOGGER.info("Client already initialized.");
         }
     }
 
     public void query(String query, Tuple params, Handler<AsyncResult<List<JsonObject>>> resultHandler){
-        client.getConnection(ar1 -> {
-            if (ar1.succeeded()) {
-                SqlConnection conn = ar1.result();
-                conn.preparedQuery(query)
-                        .execute(params, ar2 -> {
-                            if (ar2.succeeded()) {
-                                resultHandler.handle(Future.succeededFuture(rowTransformer.transform(ar2.result())));
-                                conn.close();
+        execute(client, query, params, resultHandler);
+    }
+
+    public void query(Transaction transaction, String query, Tuple params, Handler<AsyncResult<List<JsonObject>>> resultHandler){
+        execute(transaction, query, params, resultHandler);
+    }
+
+    /**
+     * Runs a statement without result set and replies with the number of rows it affected.
+     */
+    public void update(String query, Tuple params, Handler<AsyncResult<Integer>> resultHandler){
+        client.preparedQuery(query)
+                .execute(params, ar -> {
+                    if (ar.succeeded()) {
+                        resultHandler.handle(Future.succeededFuture(ar.result().rowCount()));
+                    } else {
+                        LOGGER.error(ar.cause());
+                        resultHandler.handle(Future.failedFuture(ar.cause()));
+                    }
+                });
+    }
+
+    public void batch(Transaction transaction, String query, List<Tuple> batch, Handler<AsyncResult<Void>> resultHandler){
+        transaction.preparedQuery(query)
+                .executeBatch(batch, ar -> {
+                    if (ar.succeeded()) {
+                        resultHandler.handle(Future.succeededFuture());
+                    } else {
+                        LOGGER.error(ar.cause());
+                        resultHandler.handle(Future.failedFuture(ar.cause()));
+                    }
+                });
+    }
+
+    private void execute(SqlClient sqlClient, String query, Tuple params, Handler<AsyncResult<List<JsonObject>>> resultHandler){
+        sqlClient.preparedQuery(query)
+                .execute(params, ar -> {
+                    if (ar.succeeded()) {
+                        resultHandler.handle(Future.succeededFuture(rowTransformer.transform(ar.result())));
+                    } else {
+                        LOGGER.error(ar.cause());
+                        resultHandler.handle(Future.failedFuture(ar.cause()));
+                    }
+                });
+    }
+
+    public <T> void query(String query, Tuple params, Function<Row, T> mapper, Handler<AsyncResult<List<T>>> resultHandler){
+        query(client, query, params, mapper, resultHandler);
+    }
+
+    /**
+     * Runs the query on the given client, e.g. the transaction handed to the chunkHandler of a stream.
+     */
+    public <T> void query(SqlClient sqlClient, String query, Tuple params, Function<Row, T> mapper, Handler<AsyncResult<List<T>>> resultHandler){
+        sqlClient.preparedQuery(query)
+                .mapping(mapper)
+                .execute(params, ar -> {
+                    if (ar.succeeded()) {
+                        List<T> list = new ArrayList<>(ar.result().size());
+                        ar.result().forEach(list::add);
+                        resultHandler.handle(Future.succeededFuture(list));
+                    } else {
+                        LOGGER.error(ar.cause());
+                        resultHandler.handle(Future.failedFuture(ar.cause()));
+                    }
+                });
+    }
+
+    /**
+     * Reads the result of the query through a cursor in chunks of streamChunkSize rows. The next chunk is only fetched
+     * after the future returned by the chunkHandler completed, so the consumer controls how many rows are held in memory.
+     * Streams run on a small pool of their own, so slow consumers cannot starve the other queries. A chunkHandler that
+     * does not complete within streamChunkTimeout fails the stream and gives the connection back.
+     */
+    public void stream(String query, Tuple params, Function<List<JsonObject>, Future<Void>> chunkHandler, Handler<AsyncResult<Void>> resultHandler){
+        streamChunks(query, params, rowTransformer::transform, (transaction, chunk) -> chunkHandler.apply(chunk), resultHandler);
+    }
+
+    public <T> void stream(String query, Tuple params, Function<Row, T> mapper, Function<List<T>, Future<Void>> chunkHandler, Handler<AsyncResult<Void>> resultHandler){
+        stream(query, params, mapper, (transaction, chunk) -> chunkHandler.apply(chunk), resultHandler);
+    }
+
+    /**
+     * Like stream(), but hands the transaction of the cursor to the chunkHandler, so rows belonging to a chunk can be
+     * loaded on the same connection instead of taking a second one from the pool.
+     */
+    public <T> void stream(String query, Tuple params, Function<Row, T> mapper, BiFunction<Transaction, List<T>, Future<Void>> chunkHandler, Handler<AsyncResult<Void>> resultHandler){
+        streamChunks(query, params, rows -> {
+            List<T> list = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                list.add(mapper.apply(row));
+            }
+            return list;
+        }, chunkHandler, resultHandler);
+    }
+
+    private <T> void streamChunks(String query, Tuple params, Function<RowSet<Row>, List<T>> transformer, BiFunction<Transaction, List<T>, Future<Void>> chunkHandler, Handler<AsyncResult<Void>> resultHandler){
+        streamClient.getConnection(ar -> {
+            if (ar.succeeded()) {
+                SqlConnection conn = ar.result();
+                //PostgreSQL closes cursors at the end of a transaction, so the whole read runs in one
+                Transaction transaction = conn.begin();
+                transaction.prepare(query, prepareReply -> {
+                    if (prepareReply.succeeded()) {
+                        PreparedStatement statement = prepareReply.result();
+                        Cursor cursor = statement.cursor(params);
+                        readChunk(transaction, cursor, transformer, chunkHandler, readReply -> {
+                            cursor.close();
+                            statement.close();
+                            if (readReply.succeeded()) {
+                                transaction.commit(commitReply -> {
+                                    conn.close();
+                                    resultHandler.handle(commitReply);
+                                });
+                            } else {
+                                LOGGER.error(readReply.cause());
+                                transaction.rollback(rollbackReply -> {
+                                    conn.close();
+                                    resultHandler.handle(Future.failedFuture(readReply.cause()));
+                                });
+                            }
+                        });
+                    } else {
+                        LOGGER.error(prepareReply.cause());
+                        conn.close();
+                        resultHandler.handle(Future.failedFuture(prepareReply.cause()));
+                    }
+                });
+            } else {
+                LOGGER.error(ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    private <T> void readChunk(Transaction transaction, Cursor cursor, Function<RowSet<Row>, List<T>> transformer, BiFunction<Transaction, List<T>, Future<Void>> chunkHandler, Handler<AsyncResult<Void>> resultHandler){
+        cursor.read(streamChunkSize, ar -> {
+            if (ar.succeeded()) {
+                Promise<Void> chunkPromise = Promise.promise();
+                long timerId = vertx.setTimer(streamChunkTimeout, id -> chunkPromise.tryFail(new TimeoutException("Stream consumer did not take the next chunk within " + streamChunkTimeout + " ms.")));
+                try {
+                    chunkHandler.apply(transaction, transformer.apply(ar.result())).onComplete(chunkReply -> {
+                        if (chunkReply.succeeded()) {
+                            chunkPromise.tryComplete();
+                        } else {
+                            chunkPromise.tryFail(chunkReply.cause());
+                        }
+                    });
+                } catch (Exception e) {
+                    chunkPromise.tryFail(e);
+                }
+                chunkPromise.future().onComplete(chunkReply -> {
+                    vertx.cancelTimer(timerId);
+                    if (chunkReply.failed()) {
+                        resultHandler.handle(chunkReply);
+                    } else if (cursor.hasMore()) {
+                        readChunk(transaction, cursor, transformer, chunkHandler, resultHandler);
+                    } else {
+                        resultHandler.handle(Future.succeededFuture());
+                    }
+                });
+            } else {
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    public <T> void withTransaction(Function<Transaction, Future<T>> work, Handler<AsyncResult<T>> resultHandler){
+        client.begin(ar -> {
+            if (ar.succeeded()) {
+                Transaction transaction = ar.result();
+                Future<T> workFuture;
+                try {
+                    workFuture = work.apply(transaction);
+                } catch (Exception e) {
+                    workFuture = Future.failedFuture(e);
+                }
+                workFuture.onComplete(workReply -> {
+                    if (workReply.succeeded()) {
+                        transaction.commit(commitReply -> {
+                            if (commitReply.succeeded()) {
+                                resultHandler.handle(Future.succeededFuture(workReply.result()));
                             } else {
-                                conn.close();
-                                LOGGER.error(ar2.cause());
-                                resultHandler.handle(Future.failedFuture(ar2.cause()));
+                                LOGGER.error(commitReply.cause());
+                                resultHandler.handle(Future.failedFuture(commitReply.cause()));
                             }
                         });
+                    } else {
+                        LOGGER.error("Transaction rolled back.", workReply.cause());
+                        transaction.rollback(rollbackReply -> resultHandler.handle(Future.failedFuture(workReply.cause())));
+                    }
+                });
             } else {
-                LOGGER.error(ar1.cause());
-                resultHandler.handle(Future.failedFuture(ar1.cause()));
+                LOGGER.error(ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause()));
             }
         });
     }
@@ -101,7 +303,9 @@ public class DatabaseConnector {
                                         LOGGER.info("Deleted columns " + strings.toString());
                                         addColumns(conn,tableName,keys,columInfo,resultHandler);
                                     } else {
-                                        LOGGER.info("Delete columns " + strings.toString() + " failed!");
+                                        LOGGER.error("Delete columns " + strings.toString() + " failed!", delete.cause());
+                                        resultHandler.handle(Future.failedFuture(delete.cause()));
+                                        conn.close();
                                     }
                                 });
                             }
@@ -0,0 +1,9 @@
+package de.fraunhofer.fokus.ids.persistence.util;
+/**
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public enum DeliveryStatus {
+    PENDING,
+    DELIVERED,
+    FAILED
+}
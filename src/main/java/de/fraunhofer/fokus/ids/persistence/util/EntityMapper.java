@@ -0,0 +1,106 @@
+package de.fraunhofer.fokus.ids.persistence.util;
+
+import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
+import de.fraunhofer.fokus.ids.persistence.entities.Dataset;
+import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
+import de.fraunhofer.fokus.ids.persistence.entities.User;
+import de.fraunhofer.fokus.ids.persistence.enums.DataAssetStatus;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashSet;
+/**
+ * Maps rows of the connector tables directly onto the persistence entities, without a JSON round trip.
+ * The prefixed variants read the columns of one table out of a joined row, where they were selected with an alias prefix.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class EntityMapper {
+
+    private static final DataAssetStatus[] DATA_ASSET_STATUS = DataAssetStatus.values();
+
+    public static Dataset toDataset(Row row) {
+        return toDataset(row, "");
+    }
+
+    public static Dataset toDataset(Row row, String prefix) {
+        Dataset dataset = new Dataset();
+        dataset.setId(row.getLong(prefix + "id"));
+        dataset.setCreatedAt(toInstant(row.getLocalDateTime(prefix + "created_at")));
+        dataset.setUpdatedAt(toInstant(row.getLocalDateTime(prefix + "updated_at")));
+        dataset.setResourceId(row.getString(prefix + "resourceid"));
+        dataset.setLicense(row.getString(prefix + "license"));
+        dataset.setTitle(row.getString(prefix + "title"));
+        dataset.setDescription(row.getString(prefix + "description"));
+        dataset.setPublisher(row.getString(prefix + "publisher"));
+        Integer status = row.getInteger(prefix + "status");
+        dataset.setStatus(status == null ? null : DATA_ASSET_STATUS[status]);
+        String[] tags = row.getStringArray(prefix + "tags");
+        dataset.setTags(tags == null ? new HashSet<>() : new HashSet<>(Arrays.asList(tags)));
+        dataset.setVersion(row.getString(prefix + "version"));
+        dataset.setSourceId(row.getLong(prefix + "sourceid"));
+        dataset.setDistributions(new HashSet<>());
+        return dataset;
+    }
+
+    public static Distribution toDistribution(Row row) {
+        return toDistribution(row, "");
+    }
+
+    public static Distribution toDistribution(Row row, String prefix) {
+        Distribution distribution = new Distribution();
+        distribution.setId(row.getLong(prefix + "id"));
+        distribution.setCreatedAt(toInstant(row.getLocalDateTime(prefix + "created_at")));
+        distribution.setUpdatedAt(toInstant(row.getLocalDateTime(prefix + "updated_at")));
+        distribution.setResourceId(row.getString(prefix + "resourceid"));
+        distribution.setLicense(row.getString(prefix + "license"));
+        distribution.setTitle(row.getString(prefix + "title"));
+        distribution.setDescription(row.getString(prefix + "description"));
+        distribution.setPublisher(row.getString(prefix + "publisher"));
+        distribution.setFilename(row.getString(prefix + "filename"));
+        distribution.setFiletype(row.getString(prefix + "filetype"));
+        distribution.setDatasetId(row.getString(prefix + "datasetid"));
+        return distribution;
+    }
+
+    public static DataSource toDataSource(Row row) {
+        return toDataSource(row, "");
+    }
+
+    public static DataSource toDataSource(Row row, String prefix) {
+        DataSource dataSource = new DataSource();
+        dataSource.setId(row.getLong(prefix + "id"));
+        dataSource.setCreatedAt(toInstant(row.getLocalDateTime(prefix + "created_at")));
+        dataSource.setUpdatedAt(toInstant(row.getLocalDateTime(prefix + "updated_at")));
+        dataSource.setDatasourceName(row.getString(prefix + "datasourcename"));
+        dataSource.setDatasourceType(row.getString(prefix + "datasourcetype"));
+        dataSource.setData(toJsonObject(row.getValue(prefix + "data")));
+        return dataSource;
+    }
+
+    public static User toUser(Row row) {
+        User user = new User();
+        user.setId(row.getLong("id"));
+        user.setCreatedAt(toInstant(row.getLocalDateTime("created_at")));
+        user.setUpdatedAt(toInstant(row.getLocalDateTime("updated_at")));
+        user.setUsername(row.getString("username"));
+        user.setPassword(row.getString("password"));
+        return user;
+    }
+
+    private static Instant toInstant(LocalDateTime localDateTime) {
+        return localDateTime == null ? null : localDateTime.atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    private static JsonObject toJsonObject(Object value) {
+        if (value == null) {
+            return new JsonObject();
+        }
+        //JSON columns written from string parameters are returned as text
+        return value instanceof JsonObject ? (JsonObject) value : new JsonObject(value.toString());
+    }
+}
@@ -0,0 +1,58 @@
+package de.fraunhofer.fokus.ids.persistence.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+/**
+ * Remembers keys a lookup found nothing for, so repeated requests for them are rejected without a query.
+ * Entries expire after the given TTL and the oldest are dropped beyond maxEntries. Callers clear the cache whenever
+ * rows are inserted, since a key that was unknown may exist afterwards.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class NegativeCache {
+
+    private final int maxEntries;
+    private final long ttl;
+    private long hits = 0;
+    private final Map<Object, Long> entries = new LinkedHashMap<Object, Long>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    public NegativeCache(int maxEntries, long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+    }
+
+    public synchronized boolean contains(Object key) {
+        Long expiresAt = entries.get(key);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() >= expiresAt) {
+            entries.remove(key);
+            return false;
+        }
+        hits++;
+        return true;
+    }
+
+    public synchronized void add(Object key) {
+        entries.remove(key);
+        entries.put(key, System.currentTimeMillis() + ttl);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
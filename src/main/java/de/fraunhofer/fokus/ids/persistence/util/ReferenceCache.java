@@ -0,0 +1,132 @@
+package de.fraunhofer.fokus.ids.persistence.util;
+
+import io.vertx.core.*;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.pubsub.PgSubscriber;
+import io.vertx.sqlclient.Tuple;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+/**
+ * Keeps rows that are read all the time but almost never written, like the configuration and the File Upload data source.
+ * Entries stay until the managers that write those tables invalidate them. Concurrent misses share one query.
+ * The cache is used by the MainVerticle and the worker verticles alike, so access is synchronized and results are
+ * delivered on the context of the caller.
+ * With "listennotify" set in DB_CONFIG every invalidation is also sent through Postgres NOTIFY, so other instances on
+ * the same database drop their entries as well.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class ReferenceCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ReferenceCache.class.getName());
+    private static final ReferenceCache CACHE = new ReferenceCache();
+    private static final String CHANNEL = "odc_reference_cache";
+    private static final String NOTIFY_QUERY = "SELECT pg_notify($1, $2)";
+
+    private final Map<String, Future<Object>> entries = new HashMap<>();
+    private volatile boolean notify = false;
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    private ReferenceCache() {
+    }
+
+    public static ReferenceCache getInstance() {
+        return CACHE;
+    }
+
+    /**
+     * Returns the cached value of the key or loads it. Failed loads are not cached.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void get(String key, Consumer<Handler<AsyncResult<T>>> loader, Handler<AsyncResult<T>> resultHandler) {
+        Future<Object> result;
+        Promise<Object> promise = null;
+        synchronized (this) {
+            result = entries.get(key);
+            if (result != null) {
+                hits++;
+            } else {
+                misses++;
+                promise = Promise.promise();
+                result = promise.future();
+                entries.put(key, result);
+            }
+        }
+        if (promise != null) {
+            Promise<Object> loading = promise;
+            loader.accept(ar -> {
+                if (ar.failed()) {
+                    synchronized (this) {
+                        if (entries.get(key) == loading.future()) {
+                            entries.remove(key);
+                        }
+                    }
+                }
+                loading.handle(ar.map(value -> (Object) value));
+            });
+        }
+        deliver(result.map(value -> (T) value), resultHandler);
+    }
+
+    /**
+     * Drops all entries whose key starts with the prefix, here and, if enabled, in all other instances.
+     */
+    public void invalidate(String prefix) {
+        invalidateLocal(prefix);
+        if (notify) {
+            DatabaseConnector.getInstance().query(NOTIFY_QUERY, Tuple.tuple().addString(CHANNEL).addString(prefix), reply -> {
+                if (reply.failed()) {
+                    LOGGER.error("Cache invalidation could not be published.", reply.cause());
+                }
+            });
+        }
+    }
+
+    public synchronized JsonObject getMetrics() {
+        return new JsonObject()
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("invalidations", invalidations)
+                .put("size", entries.size());
+    }
+
+    /**
+     * Subscribes to the invalidations of other instances. Notifications missed while the connection was down cannot
+     * be replayed, so everything is dropped whenever the subscription is (re)established.
+     */
+    void listen(Vertx vertx, PgConnectOptions connectOptions) {
+        notify = true;
+        PgSubscriber subscriber = PgSubscriber.subscriber(vertx, connectOptions)
+                .reconnectPolicy(retries -> 1000L);
+        subscriber.channel(CHANNEL)
+                .subscribeHandler(v -> invalidateLocal(""))
+                .handler(this::invalidateLocal);
+        subscriber.connect(ar -> {
+            if (ar.failed()) {
+                LOGGER.error("Cache invalidation channel could not be subscribed.", ar.cause());
+            }
+        });
+    }
+
+    private synchronized void invalidateLocal(String prefix) {
+        if (entries.keySet().removeIf(key -> key.startsWith(prefix))) {
+            invalidations++;
+        }
+    }
+
+    private <T> void deliver(Future<T> result, Handler<AsyncResult<T>> resultHandler) {
+        Context context = Vertx.currentContext();
+        if (context == null || result.isComplete()) {
+            result.onComplete(resultHandler);
+        } else {
+            result.onComplete(ar -> context.runOnContext(v -> resultHandler.handle(ar)));
+        }
+    }
+}
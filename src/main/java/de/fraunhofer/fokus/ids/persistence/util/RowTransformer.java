@@ -16,32 +16,89 @@ import java.util.List;
  */
 public class RowTransformer {
 
+    /**
+     * Decoders for a single column. The pg client already maps the column type to a Java type, so the decoder is
+     * chosen once per column from the first non-null value instead of probing every cell.
+     */
+    private enum ColumnDecoder {
+        TIMESTAMP {
+            @Override
+            Object decode(Row row, int i, Object value) {
+                return ((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant();
+            }
+        },
+        STRING_ARRAY {
+            @Override
+            Object decode(Row row, int i, Object value) {
+                return new JsonArray(Arrays.asList(row.getStringArray(i)));
+            }
+        },
+        TEXT_OR_JSON {
+            @Override
+            Object decode(Row row, int i, Object value) {
+                if (!(value instanceof String)) {
+                    return value;
+                }
+                String text = (String) value;
+                //JSON columns written from string parameters come back as text holding an object
+                if (isJsonObject(text)) {
+                    try {
+                        return new JsonObject(text);
+                    } catch (DecodeException e) {
+                        return text;
+                    }
+                }
+                return text;
+            }
+        },
+        RAW {
+            @Override
+            Object decode(Row row, int i, Object value) {
+                return value;
+            }
+        };
+
+        abstract Object decode(Row row, int i, Object value);
+
+        static ColumnDecoder of(Object value) {
+            if (value instanceof LocalDateTime) {
+                return TIMESTAMP;
+            } else if (value instanceof String[]) {
+                return STRING_ARRAY;
+            } else if (value instanceof Number || value instanceof Boolean) {
+                return RAW;
+            }
+            return TEXT_OR_JSON;
+        }
+    }
+
     public List<JsonObject> transform(RowSet<Row> rows) {
 
-        List<JsonObject> list = new ArrayList<>();
+        List<JsonObject> list = new ArrayList<>(rows.size());
+        //sized from the first row, statements without a result set have no column names
+        ColumnDecoder[] plan = null;
         for (Row row : rows) {
             int size = row.size();
+            if (plan == null) {
+                plan = new ColumnDecoder[size];
+            }
             JsonObject jsonObject = new JsonObject();
             for (int i = 0; i < size; i++) {
-                String columnName = row.getColumnName(i);
                 Object value = row.getValue(i);
                 if (value != null) {
-                    if (value instanceof LocalDateTime) {
-                        jsonObject.put(columnName, ((LocalDateTime) value).atZone(
-                                ZoneId.systemDefault()).toInstant());
-                    } else if(value instanceof String[]) {
-                        jsonObject.put(columnName, new JsonArray(Arrays.asList(row.getStringArray(i))));
-                    } else {
-                        try {
-                            jsonObject.put(columnName, new JsonObject(value.toString()));
-                        } catch (DecodeException e){
-                            jsonObject.put(columnName, row.getValue(i));
-                        }
+                    if (plan[i] == null) {
+                        plan[i] = ColumnDecoder.of(value);
                     }
+                    jsonObject.put(row.getColumnName(i), plan[i].decode(row, i, value));
                 }
             }
             list.add(jsonObject);
         }
         return list;
     }
+
+    private static boolean isJsonObject(String text) {
+        int last = text.length() - 1;
+        return last > 0 && text.charAt(0) == '{' && text.charAt(last) == '}';
+    }
 }
@@ -0,0 +1,118 @@
+package de.fraunhofer.fokus.ids.services;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ResourceCatalog;
+import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+/**
+ * A built Connector together with its lazily serialized forms. Each form is computed once and never changes
+ * afterwards, so its buffer can be written to any number of responses.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class CachedConnector {
+
+    private final Connector connector;
+    private final long version;
+    private volatile Representation prettyJson;
+    private volatile Representation compactJson;
+    private volatile String jsonLd;
+    private volatile Map<String, Representation> resources;
+
+    public CachedConnector(Connector connector, long version) {
+        this.connector = connector;
+        this.version = version;
+    }
+
+    public Connector getConnector() {
+        return connector;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Representation getJson(boolean compact) {
+        if (compact) {
+            if (compactJson == null) {
+                compactJson = new Representation(Json.encode(connector));
+            }
+            return compactJson;
+        }
+        if (prettyJson == null) {
+            prettyJson = new Representation(Json.encodePrettily(connector));
+        }
+        return prettyJson;
+    }
+
+    public String getJsonLd(Serializer serializer) throws IOException {
+        if (jsonLd == null) {
+            jsonLd = serializer.serialize(connector);
+        }
+        return jsonLd;
+    }
+
+    /**
+     * The JSON-LD of every offered resource, by resource id. The ETag of a representation tells whether a resource
+     * changed between two versions of the Connector.
+     */
+    public Map<String, Representation> getResources(Serializer serializer) throws IOException {
+        if (resources == null) {
+            Map<String, Representation> serialized = new LinkedHashMap<>();
+            for (ResourceCatalog catalog : connector.getResourceCatalog() == null ? Collections.<ResourceCatalog>emptyList() : connector.getResourceCatalog()) {
+                if (catalog.getOfferedResource() != null) {
+                    for (Resource resource : catalog.getOfferedResource()) {
+                        serialized.put(resource.getId().toString(), new Representation(serializer.serialize(resource)));
+                    }
+                }
+            }
+            resources = Collections.unmodifiableMap(serialized);
+        }
+        return resources;
+    }
+
+    public static class Representation {
+
+        private final Buffer body;
+        private final String etag;
+
+        private Representation(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            this.body = Buffer.buffer(bytes);
+            this.etag = "\"" + hash(bytes) + "\"";
+        }
+
+        public Buffer getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        private static String hash(byte[] bytes) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+                StringBuilder hex = new StringBuilder();
+                for (int i = 0; i < 16; i++) {
+                    hex.append(String.format("%02x", digest[i]));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                //every JVM ships SHA-256, the length and hash code still tell different bodies apart in practice
+                return bytes.length + "-" + Integer.toHexString(Arrays.hashCode(bytes));
+            }
+        }
+    }
+}
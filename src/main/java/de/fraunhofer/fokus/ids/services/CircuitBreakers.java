@@ -0,0 +1,123 @@
+package de.fraunhofer.fokus.ids.services;
+
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.circuitbreaker.CircuitBreakerOptions;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+/**
+ * One circuit breaker per remote endpoint (broker URL, adapter or config manager "host:port"), shared by all verticles.
+ * After "maxfailures" failed calls within "failureswindow" the breaker opens and further calls fail at once with an
+ * OpenCircuitException instead of waiting for a dead endpoint. After "resettimeout" a single probe call is let through,
+ * its outcome closes or reopens the breaker.
+ * "timeout" is the idle timeout callers put on their requests, so a hung endpoint counts as failed while a long
+ * transfer that keeps sending data does not. Broker messages are small, there it bounds the whole exchange.
+ * The breakers themselves do not time out calls.
+ * All values can be overridden per endpoint in the "endpoints" object of the config.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class CircuitBreakers {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CircuitBreakers.class.getName());
+    private static final CircuitBreakers BREAKERS = new CircuitBreakers();
+    private static final int DEFAULT_MAX_FAILURES = 5;
+    private static final long DEFAULT_TIMEOUT = 10000;
+    private static final long DEFAULT_RESET_TIMEOUT = 30000;
+    private static final long DEFAULT_FAILURES_WINDOW = 60000;
+
+    private Vertx vertx;
+    private JsonObject config = new JsonObject();
+    private final Map<String, CircuitBreaker> breakers = new TreeMap<>();
+
+    private CircuitBreakers() {
+    }
+
+    public static CircuitBreakers getInstance() {
+        return BREAKERS;
+    }
+
+    /**
+     * Reads "maxfailures", "timeout", "resettimeout", "failureswindow" (all times in milliseconds) and the per endpoint
+     * overrides in "endpoints" from the given config. Breakers created before are dropped.
+     */
+    public synchronized void configure(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.config = config;
+        breakers.values().forEach(CircuitBreaker::close);
+        breakers.clear();
+    }
+
+    /**
+     * Runs the command through the breaker of the endpoint. Calls made before configure() run without a breaker.
+     */
+    public <T> void execute(String endpoint, Handler<Promise<T>> command, Handler<AsyncResult<T>> resultHandler) {
+        CircuitBreaker breaker = getBreaker(endpoint);
+        if (breaker == null) {
+            Promise<T> promise = Promise.promise();
+            promise.future().onComplete(resultHandler);
+            command.handle(promise);
+        } else {
+            breaker.execute(command, resultHandler);
+        }
+    }
+
+    public long getTimeout(String endpoint) {
+        return getConfig(endpoint).getLong("timeout", DEFAULT_TIMEOUT);
+    }
+
+    public synchronized JsonObject getStates() {
+        JsonObject states = new JsonObject();
+        breakers.forEach((endpoint, breaker) -> {
+            JsonObject endpointConfig = getConfig(endpoint);
+            states.put(endpoint, new JsonObject()
+                    .put("state", breaker.state().name())
+                    .put("failures", breaker.failureCount())
+                    .put("maxFailures", endpointConfig.getInteger("maxfailures", DEFAULT_MAX_FAILURES))
+                    .put("timeout", endpointConfig.getLong("timeout", DEFAULT_TIMEOUT))
+                    .put("resetTimeout", endpointConfig.getLong("resettimeout", DEFAULT_RESET_TIMEOUT)));
+        });
+        return states;
+    }
+
+    /**
+     * Closes all breakers, e.g. once an endpoint that was down is known to be back.
+     */
+    public synchronized void reset() {
+        breakers.values().forEach(CircuitBreaker::reset);
+    }
+
+    private synchronized CircuitBreaker getBreaker(String endpoint) {
+        if (vertx == null) {
+            return null;
+        }
+        return breakers.computeIfAbsent(endpoint, name -> {
+            JsonObject endpointConfig = getConfig(name);
+            CircuitBreakerOptions options = new CircuitBreakerOptions()
+                    .setMaxFailures(endpointConfig.getInteger("maxfailures", DEFAULT_MAX_FAILURES))
+                    .setResetTimeout(endpointConfig.getLong("resettimeout", DEFAULT_RESET_TIMEOUT))
+                    .setFailuresRollingWindow(endpointConfig.getLong("failureswindow", DEFAULT_FAILURES_WINDOW))
+                    //calls are bounded by the idle timeout of their requests, see getTimeout()
+                    .setTimeout(-1)
+                    //states are read through getStates(), nothing is published on the event bus
+                    .setNotificationAddress(null)
+                    .setNotificationPeriod(0);
+            return CircuitBreaker.create(name, vertx, options)
+                    .openHandler(v -> LOGGER.warn("Circuit breaker of " + name + " opened, calls fail fast."))
+                    .halfOpenHandler(v -> LOGGER.info("Circuit breaker of " + name + " lets a probe call through."))
+                    .closeHandler(v -> LOGGER.info("Circuit breaker of " + name + " closed."));
+        });
+    }
+
+    private synchronized JsonObject getConfig(String endpoint) {
+        JsonObject endpoints = config.getJsonObject("endpoints", new JsonObject());
+        return config.copy().mergeIn(endpoints.getJsonObject(endpoint, new JsonObject()));
+    }
+}
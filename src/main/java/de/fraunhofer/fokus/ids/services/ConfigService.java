@@ -50,12 +50,17 @@ public class ConfigService {
     }
 
 
+    /**
+     * The unregistration of the current connector identity is only written to the outbox of the BrokerService, so
+     * brokers that are down do not block the change. If the change fails, the brokers are subscribed again.
+     */
     public void edit(Tuple params, Handler<AsyncResult<JsonObject>> resultHandler){
 
         brokerService.unsubscribeAll(unsubReply -> {
             if (unsubReply.succeeded()) {
                 configManager.edit(params, editReply -> {
                     if (editReply.succeeded()) {
+                        ConnectorCache.getInstance().invalidate();
                         brokerService.subscribeAll(subReply -> {
                             if (subReply.succeeded()) {
                                 JsonObject jO = new JsonObject();
@@ -71,6 +76,11 @@ public class ConfigService {
                         });
                     } else {
                         LOGGER.error(editReply.cause());
+                        brokerService.subscribeAll(subReply -> {
+                            if (subReply.failed()) {
+                                LOGGER.error("INCONSISTENT STATE: Configuration is unchanged but its unregistration at the brokers was scheduled.");
+                            }
+                        });
                         resultHandler.handle(Future.failedFuture(editReply.cause()));
                     }
                 });
@@ -85,7 +95,12 @@ public class ConfigService {
     }
 
     public void insert(Tuple params, Handler<AsyncResult<JsonObject>> resultHandler){
-        configManager.insert(params, r -> reply(r, resultHandler));
+        configManager.insert(params, r -> {
+            if (r.succeeded()) {
+                ConnectorCache.getInstance().invalidate();
+            }
+            reply(r, resultHandler);
+        });
     }
 
     private void reply(AsyncResult reply, Handler<AsyncResult<JsonObject>> resultHandler){
@@ -0,0 +1,91 @@
+package de.fraunhofer.fokus.ids.services;
+
+import de.fraunhofer.iais.eis.Connector;
+import io.vertx.core.*;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.function.Consumer;
+/**
+ * Holds the last built Connector self-description until a data asset or the configuration changes. The cache is shared
+ * by all IDSService instances, including the one of the broker service verticle, so access is synchronized.
+ * At most one rebuild runs at a time. Requests arriving during a rebuild wait for its result. The serialized forms
+ * of a Connector are kept with it, so they are computed at most once per version.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class ConnectorCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ConnectorCache.class.getName());
+    private static final ConnectorCache CACHE = new ConnectorCache();
+
+    private CachedConnector connector;
+    private Future<CachedConnector> rebuild;
+    private long generation = 0;
+    private long rebuildGeneration = -1;
+
+    private ConnectorCache() {
+    }
+
+    public static ConnectorCache getInstance() {
+        return CACHE;
+    }
+
+    /**
+     * Returns the cached Connector or builds it with the given builder. The result is delivered on the context of the caller.
+     */
+    public void get(Consumer<Handler<AsyncResult<Connector>>> builder, Handler<AsyncResult<CachedConnector>> resultHandler) {
+        Context context = Vertx.currentContext();
+        Handler<AsyncResult<CachedConnector>> callerHandler = context == null ? resultHandler : ar -> context.runOnContext(v -> resultHandler.handle(ar));
+
+        Future<CachedConnector> result;
+        Future<CachedConnector> previous = null;
+        Promise<CachedConnector> promise = null;
+        long buildGeneration;
+        synchronized (this) {
+            buildGeneration = generation;
+            if (connector != null) {
+                result = Future.succeededFuture(connector);
+            } else if (rebuild != null && rebuildGeneration == generation) {
+                result = rebuild;
+            } else {
+                //a rebuild started before the last invalidation may still run, the new one starts after it to keep rebuilds serial
+                previous = rebuild == null ? Future.succeededFuture() : rebuild;
+                promise = Promise.promise();
+                rebuild = promise.future();
+                rebuildGeneration = generation;
+                result = rebuild;
+            }
+        }
+        if (promise != null) {
+            startRebuild(builder, previous, promise, buildGeneration);
+        }
+        result.onComplete(callerHandler);
+    }
+
+    public synchronized void invalidate() {
+        connector = null;
+        generation++;
+        LOGGER.info("Connector self-description invalidated.");
+    }
+
+    private void startRebuild(Consumer<Handler<AsyncResult<Connector>>> builder, Future<CachedConnector> previous, Promise<CachedConnector> promise, long buildGeneration) {
+        previous.onComplete(v -> builder.accept(ar -> {
+            CachedConnector built = ar.succeeded() ? new CachedConnector(ar.result(), buildGeneration) : null;
+            synchronized (this) {
+                if (rebuild == promise.future()) {
+                    rebuild = null;
+                }
+                if (built != null && buildGeneration == generation) {
+                    connector = built;
+                }
+            }
+            if (built != null) {
+                promise.complete(built);
+            } else {
+                LOGGER.error("Connector self-description could not be built.", ar.cause());
+                promise.fail(ar.cause());
+            }
+        }));
+    }
+}
@@ -1,16 +1,13 @@
 package de.fraunhofer.fokus.ids.services;
 
-import de.fraunhofer.fokus.ids.models.Constants;
+import de.fraunhofer.fokus.ids.models.PayloadFile;
 import de.fraunhofer.fokus.ids.persistence.entities.Dataset;
 import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
 import de.fraunhofer.fokus.ids.persistence.managers.DataAssetManager;
-import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
 import de.fraunhofer.iais.eis.util.TypedLiteral;
 import io.vertx.core.*;
-import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -24,7 +21,6 @@ import org.eclipse.rdf4j.model.vocabulary.DCTERMS;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
-import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -43,12 +39,12 @@ public class IDSService {
 	private DataAssetManager dataAssetManager;
 	private ConfigService configService;
     private Serializer serializer = new Serializer();
-	private AuthAdapterService authAdapterService;
+	private TokenCache tokenCache;
 
 	public IDSService(Vertx vertx){
 		dataAssetManager = new DataAssetManager();
 		configService = new ConfigService(vertx);
-		this.authAdapterService = AuthAdapterService.createProxy(vertx, Constants.AUTHADAPTER_SERVICE);
+		this.tokenCache = TokenCache.getInstance(vertx);
 
 	}
 
@@ -153,8 +149,70 @@ public class IDSService {
 		});
 	}
 
+	public void createResourceUpdateMessage(JsonObject config, URI resource, Handler<AsyncResult<Message>> resultHandler){
+		getJWT(jwtResult -> {
+			if(jwtResult.succeeded()) {
+				try {
+					ResourceUpdateMessage message = new ResourceUpdateMessageBuilder()
+							._issued_(getDate())
+							._modelVersion_(INFO_MODEL_VERSION)
+							._issuerConnector_(new URI(config.getString("url") + "#Connector"))
+							._affectedResource_(resource)
+							._securityToken_(new DynamicAttributeTokenBuilder()
+									._tokenFormat_(TokenFormat.JWT)
+									._tokenValue_(jwtResult.result())
+									.build())
+							.build();
+					resultHandler.handle(Future.succeededFuture(message));
+				} catch (URISyntaxException e) {
+					LOGGER.error(e);
+					resultHandler.handle(Future.failedFuture(e));
+				}
+			} else {
+				LOGGER.error(jwtResult.cause());
+				resultHandler.handle(Future.failedFuture(jwtResult.cause()));
+			}
+		});
+	}
+
+	public void createResourceUnavailableMessage(JsonObject config, URI resource, Handler<AsyncResult<Message>> resultHandler){
+		getJWT(jwtResult -> {
+			if(jwtResult.succeeded()) {
+				try {
+					ResourceUnavailableMessage message = new ResourceUnavailableMessageBuilder()
+							._issued_(getDate())
+							._modelVersion_(INFO_MODEL_VERSION)
+							._issuerConnector_(new URI(config.getString("url") + "#Connector"))
+							._affectedResource_(resource)
+							._securityToken_(new DynamicAttributeTokenBuilder()
+									._tokenFormat_(TokenFormat.JWT)
+									._tokenValue_(jwtResult.result())
+									.build())
+							.build();
+					resultHandler.handle(Future.succeededFuture(message));
+				} catch (URISyntaxException e) {
+					LOGGER.error(e);
+					resultHandler.handle(Future.failedFuture(e));
+				}
+			} else {
+				LOGGER.error(jwtResult.cause());
+				resultHandler.handle(Future.failedFuture(jwtResult.cause()));
+			}
+		});
+	}
+
 	public void getConnector(JsonObject config, Handler<AsyncResult<Connector>> resultHandler) {
-				buildBaseConnector(config, reply -> {
+		getCachedConnector(config, reply -> {
+			if (reply.succeeded()) {
+				resultHandler.handle(Future.succeededFuture(reply.result().getConnector()));
+			} else {
+				resultHandler.handle(Future.failedFuture(reply.cause()));
+			}
+		});
+	}
+
+	public void getCachedConnector(JsonObject config, Handler<AsyncResult<CachedConnector>> resultHandler) {
+				ConnectorCache.getInstance().get(next -> buildBaseConnector(config, next), reply -> {
 					if (reply.succeeded()) {
 						resultHandler.handle(Future.succeededFuture(reply.result()));
 					} else {
@@ -350,13 +408,7 @@ public class IDSService {
 
 		dataAssetManager.findPublished(reply -> {
 			if(reply.succeeded()) {
-
-				JsonArray array = new JsonArray(reply.result().toString());
-				List<Dataset> assets = new ArrayList<>();
-				for(int i=0;i<array.size();i++){
-					assets.add(Json.decodeValue(array.getJsonObject(i).toString(), Dataset.class));
-				}
-				next.handle(Future.succeededFuture(assets));
+				next.handle(Future.succeededFuture(reply.result()));
 			}
 			else{
 				LOGGER.error(reply.cause());
@@ -371,7 +423,8 @@ public class IDSService {
 			List<ConnectorEndpoint> daEndpoints = new ArrayList<>();
 			for(Distribution dist : da.getDistributions()) {
 				try {
-					ConnectorEndpoint e = new ConnectorEndpointBuilder(new URI(config.getString("url") + "/ConnectorEndpoint/" + UUID.randomUUID()))
+					//derived from the distribution, so an unchanged resource serializes identically across rebuilds
+					ConnectorEndpoint e = new ConnectorEndpointBuilder(new URI(config.getString("url") + "/ConnectorEndpoint/" + dist.getId()))
 							._endpointArtifact_(new ArtifactBuilder(new URI(config.getString("url") + "/Artifact/" + dist.getId()))
 									._creationDate_(getDate(dist.getCreatedAt()))
 									._fileName_(dist.getFilename())
@@ -447,7 +500,7 @@ public class IDSService {
 	}
 
 	private void createRejectionMessage(JsonObject config, URI uri,RejectionReason rejectionReason,Handler<AsyncResult<RejectionMessage>> resultHandler) {
-					getJWT(jwtReply -> {
+					tokenCache.getTokenNow(jwtReply -> {
 						if (jwtReply.succeeded()) {
 							try {
 								RejectionMessage message = new RejectionMessageBuilder(new URI(config.getString("url") + "/RejectionMessage/" + UUID.randomUUID()))
@@ -486,23 +539,9 @@ public class IDSService {
 				}
 				final String finalMessage = message;
 				getFileName(assetId, fileNameReply -> {
-					if(fileNameReply.succeeded()) {
-						MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
-								.setCharset(StandardCharsets.UTF_8)
-								.setContentType(ContentType.MULTIPART_FORM_DATA)
-								.addPart("header", new StringBody(finalMessage, ContentType.create("application/json", StandardCharsets.UTF_8)))
-								.addBinaryBody("payload", (File) payload.result(), ContentType.create("application/octet-stream"), fileNameReply.result());
-						resultHandler.handle(Future.succeededFuture(multipartEntityBuilder.build()));
-						((File) payload.result()).delete();
-					} else {
-						MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
-								.setCharset(StandardCharsets.UTF_8)
-								.setContentType(ContentType.MULTIPART_FORM_DATA)
-								.addPart("header", new StringBody(finalMessage, ContentType.create("application/json", StandardCharsets.UTF_8)))
-								.addBinaryBody("payload", (File) payload.result(), ContentType.create("application/octet-stream"), UUID.randomUUID().toString());
-						resultHandler.handle(Future.succeededFuture(multipartEntityBuilder.build()));
-						((File) payload.result()).delete();
-					}
+					String fileName = fileNameReply.succeeded() ? fileNameReply.result() : UUID.randomUUID().toString();
+					PayloadFile payloadFile = (PayloadFile) payload.result();
+					resultHandler.handle(Future.succeededFuture(new StreamingMultipartEntity(finalMessage, payloadFile.getFile(), fileName, payloadFile.isTemporary())));
 				});
 			}else{
 				handleRejectionMessage(uri,RejectionReason.INTERNAL_RECIPIENT_ERROR,resultHandler);
@@ -511,13 +550,13 @@ public class IDSService {
 			});
 	}
 
-	public void handleAboutMessage(URI uri, Future<Message> header, Future<Connector> payload, Handler<AsyncResult<HttpEntity>> resultHandler) {
+	public void handleAboutMessage(URI uri, Future<Message> header, Future<CachedConnector> payload, Handler<AsyncResult<HttpEntity>> resultHandler) {
 		CompositeFuture.all(header, payload).onComplete( reply -> {
 			if (reply.succeeded()) {
 
                 try {
 					String message = serializer.serialize(header.result());
-					String connector = serializer.serialize(payload.result());
+					String connector = payload.result().getJsonLd(serializer);
 
 					MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
 							.setCharset(StandardCharsets.UTF_8)
@@ -539,8 +578,7 @@ public class IDSService {
 	public void getFileName(Long id, Handler<AsyncResult<String>> result){
 		dataAssetManager.findDistributionById(id,jsonObjectAsyncResult -> {
 			if (jsonObjectAsyncResult.succeeded()){
-				Distribution dataAsset = Json.decodeValue(jsonObjectAsyncResult.result().toString(), Distribution.class);
-				result.handle(Future.succeededFuture(dataAsset.getFilename()));
+				result.handle(Future.succeededFuture(jsonObjectAsyncResult.result().getFilename()));
 			}
 			else {
 				LOGGER.error(jsonObjectAsyncResult.cause());
@@ -584,6 +622,6 @@ public class IDSService {
 	}
 
 	private void getJWT(Handler<AsyncResult<String>> resultHandler){
-		authAdapterService.retrieveToken(tokenReply -> resultHandler.handle(tokenReply));
+		tokenCache.getToken(resultHandler);
 	}
 }
@@ -12,7 +12,9 @@ import io.vertx.sqlclient.Tuple;
 import org.mindrot.jbcrypt.BCrypt;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -26,6 +28,21 @@ public class InitService{
 	private final String ADMIN_CREATE_QUERY = "INSERT INTO public.user(created_at, updated_at, username, password) SELECT NOW(), NOW(), $1, $2 WHERE NOT EXISTS ( SELECT 1 FROM public.user WHERE username=$1)";
 	private final String DATASOURCEFILEUPLOAD_CREATE_QUERY = "INSERT INTO datasource(created_at, updated_at, datasourcename,data, datasourcetype) SELECT NOW(), NOW(), $1, $2 ,$3 WHERE NOT EXISTS ( SELECT 1 FROM datasource WHERE datasourcetype=$3)";
 
+	private final String INDEXSTATUS_QUERY = "SELECT c.relname AS name, i.indisvalid AS valid, pg_size_pretty(pg_relation_size(c.oid)) AS size FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ANY($1)";
+	private final String REINDEX_QUERY = "REINDEX INDEX ";
+	//the outbox upserts on the url, so this index is part of the table and not one of the optional indexes below
+	private final String BROKEROUTBOX_URL_INDEX_QUERY = "CREATE UNIQUE INDEX IF NOT EXISTS brokeroutbox_url_idx ON brokeroutbox (url)";
+
+	private final Map<String, String> indexes = new LinkedHashMap<String, String>() {{
+		put("distribution_datasetid_idx", "CREATE INDEX IF NOT EXISTS distribution_datasetid_idx ON distribution (datasetid)");
+		put("dataset_resourceid_idx", "CREATE INDEX IF NOT EXISTS dataset_resourceid_idx ON dataset (resourceid)");
+		put("dataset_status_idx", "CREATE INDEX IF NOT EXISTS dataset_status_idx ON dataset (status)");
+		put("dataset_tags_idx", "CREATE INDEX IF NOT EXISTS dataset_tags_idx ON dataset USING GIN (tags)");
+		put("datasource_datasourcetype_idx", "CREATE INDEX IF NOT EXISTS datasource_datasourcetype_idx ON datasource (datasourcetype)");
+		put("broker_status_idx", "CREATE INDEX IF NOT EXISTS broker_status_idx ON broker (status)");
+		put("brokeroutbox_due_idx", "CREATE INDEX IF NOT EXISTS brokeroutbox_due_idx ON brokeroutbox (next_attempt) WHERE status = 'PENDING'");
+	}};
+
 	private final JsonObject user = new JsonObject().put("id","SERIAL")
 			.put("created_at","TIMESTAMP")
 			.put("updated_at","TIMESTAMP")
@@ -60,6 +77,20 @@ public class InitService{
 			.put("updated_at","TIMESTAMP")
 			.put("url","TEXT")
 			.put("status","TEXT");
+	private final JsonObject brokeroutbox = new JsonObject().put("id","SERIAL")
+			.put("created_at","TIMESTAMP")
+			.put("updated_at","TIMESTAMP")
+			.put("url","TEXT")
+			.put("type","TEXT")
+			.put("status","TEXT")
+			.put("attempts","INTEGER")
+			.put("revision","INTEGER")
+			.put("next_attempt","TIMESTAMP")
+			.put("delivered_at","TIMESTAMP")
+			.put("last_error","TEXT")
+			.put("payload","TEXT")
+			.put("payload_type","TEXT")
+			.put("snapshot","JSONB");
 	private final JsonObject configuration = new JsonObject().put("id","SERIAL")
 			.put("country","TEXT")
 			.put("url","TEXT")
@@ -75,6 +106,7 @@ public class InitService{
 
 		initTables(reply -> {
 			if(reply.succeeded()){
+				initIndexes();
 				createAdminUser(reply2 -> {
 					if (reply2.succeeded()) {
 						resultHandler.handle(Future.succeededFuture());
@@ -86,6 +118,9 @@ public class InitService{
 				});
 
 			}
+			else{
+				resultHandler.handle(Future.failedFuture(reply.cause()));
+			}
 		});
 	}
 
@@ -96,6 +131,12 @@ public class InitService{
 		return queryFuture;
 	}
 
+	private Future<List<JsonObject>> performIndexCreation(String statement){
+		Promise<List<JsonObject>> queryPromise = Promise.promise();
+		DatabaseConnector.getInstance().query(statement, Tuple.tuple(), queryPromise);
+		return queryPromise.future();
+	}
+
 	private Future<List<JsonObject>> performFileUploadTabelCreation(){
 		Promise<List<JsonObject>> queryPromise = Promise.promise();
 		Future<List<JsonObject>> queryFuture = queryPromise.future();
@@ -109,13 +150,14 @@ public class InitService{
 	private void initTables(Handler<AsyncResult<Void>> resultHandler){
 
 		ArrayList<Future> list = new ArrayList<Future>() {{
-            performUpdate(user,"public.user");
-            performUpdate(dataset,"dataset");
-			performUpdate(distribution,"distribution");
-			performUpdate(datasource,"datasource");
-            performUpdate(broker,"broker");
-            performUpdate(job,"job");
-            performUpdate(configuration,"configuration");
+            add(performUpdate(user,"public.user"));
+            add(performUpdate(dataset,"dataset"));
+			add(performUpdate(distribution,"distribution"));
+			add(performUpdate(datasource,"datasource"));
+            add(performUpdate(broker,"broker"));
+            add(performUpdate(brokeroutbox,"brokeroutbox").compose(v -> performIndexCreation(BROKEROUTBOX_URL_INDEX_QUERY)));
+            add(performUpdate(job,"job"));
+            add(performUpdate(configuration,"configuration"));
 		}};
 
 		CompositeFuture.all(list).onComplete( reply -> {
@@ -138,6 +180,52 @@ public class InitService{
 		});
 	}
 
+	/**
+	 * Creates the secondary indexes of the hot lookup columns if they are missing and rebuilds indexes left invalid.
+	 * Missing indexes only cost performance, so failures are logged without aborting the startup.
+	 */
+	private void initIndexes(){
+		List<Future> indexFutures = new ArrayList<>();
+		for(String statement : indexes.values()){
+			indexFutures.add(performIndexCreation(statement));
+		}
+		CompositeFuture.join(indexFutures).onComplete(reply -> {
+			if(reply.failed()){
+				LOGGER.error("Index creation failed.", reply.cause());
+			}
+			logIndexStatus();
+		});
+	}
+
+	private void logIndexStatus(){
+		DatabaseConnector.getInstance().query(INDEXSTATUS_QUERY, Tuple.tuple().addStringArray(indexes.keySet().toArray(new String[0])), reply -> {
+			if(reply.succeeded()){
+				List<String> missing = new ArrayList<>(indexes.keySet());
+				for(JsonObject index : reply.result()){
+					String name = index.getString("name");
+					missing.remove(name);
+					if(index.getBoolean("valid")){
+						LOGGER.info("Index " + name + " is valid (" + index.getString("size") + ").");
+					} else {
+						LOGGER.warn("Index " + name + " is invalid and will be rebuilt.");
+						DatabaseConnector.getInstance().query(REINDEX_QUERY + name, Tuple.tuple(), reindexReply -> {
+							if(reindexReply.succeeded()){
+								LOGGER.info("Index " + name + " rebuilt.");
+							} else {
+								LOGGER.error("Index " + name + " could not be rebuilt.", reindexReply.cause());
+							}
+						});
+					}
+				}
+				for(String name : missing){
+					LOGGER.warn("Index " + name + " is missing.");
+				}
+			} else {
+				LOGGER.error("Index status could not be read.", reply.cause());
+			}
+		});
+	}
+
 	private void createAdminUser(Handler<AsyncResult<Void>> resultHandler){
 
 		ConfigStoreOptions confStore = new ConfigStoreOptions()
@@ -0,0 +1,148 @@
+package de.fraunhofer.fokus.ids.services;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+/**
+ * multipart/form-data entity of an IDS message header and a payload file, in the layout MultipartEntityBuilder produces.
+ * Unlike the entities built by MultipartEntityBuilder it is never held in memory: send() writes the header part and then
+ * pipes the payload from an AsyncFile into a chunked response, so only a few buffers per request are in use.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class StreamingMultipartEntity extends AbstractHttpEntity {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(StreamingMultipartEntity.class.getName());
+    private static final String CRLF = "\r\n";
+
+    private final String boundary;
+    private final String header;
+    private final File payload;
+    private final String fileName;
+    private final boolean deletePayload;
+
+    /**
+     * @param deletePayload whether the payload is a temporary copy that is removed once it was sent
+     */
+    public StreamingMultipartEntity(String header, File payload, String fileName, boolean deletePayload) {
+        this.boundary = UUID.randomUUID().toString().replace("-", "");
+        this.header = header;
+        this.payload = payload;
+        this.fileName = fileName;
+        this.deletePayload = deletePayload;
+        setContentType(ContentType.MULTIPART_FORM_DATA.getMimeType() + "; boundary=" + boundary + "; charset=UTF-8");
+        setChunked(true);
+    }
+
+    /**
+     * Streams the entity into the response. The response is only started once the payload could be opened, so a
+     * missing file is still answered with a 500. A failure after that resets the response.
+     */
+    public void send(Vertx vertx, HttpServerResponse response) {
+        vertx.fileSystem().open(payload.getPath(), new OpenOptions().setRead(true).setWrite(false).setCreate(false), fileReply -> {
+            if (fileReply.failed()) {
+                LOGGER.error("Payload could not be opened.", fileReply.cause());
+                response.setStatusCode(500).end();
+                deletePayload(vertx);
+                return;
+            }
+            AsyncFile file = fileReply.result();
+            boolean[] closed = {false};
+            Runnable closeFile = () -> {
+                if (!closed[0]) {
+                    closed[0] = true;
+                    file.close(closeReply -> deletePayload(vertx));
+                }
+            };
+            //a consumer that goes away never drains the response, release the file instead of waiting for the pipe
+            response.closeHandler(v -> closeFile.run());
+            response.setChunked(true);
+            response.putHeader(HttpHeaders.CONTENT_TYPE, getContentType().getValue());
+            response.write(Buffer.buffer(getPreamble(), StandardCharsets.UTF_8.name()));
+            file.pipe()
+                    .endOnComplete(false)
+                    .to(response, ar -> {
+                        if (ar.succeeded()) {
+                            response.end(Buffer.buffer(getEpilogue(), StandardCharsets.UTF_8.name()));
+                        } else {
+                            LOGGER.error("Payload could not be streamed.", ar.cause());
+                            if (!response.closed()) {
+                                //the status line is already sent, abort so the client does not take the truncated body as complete
+                                response.reset();
+                            }
+                        }
+                        closeFile.run();
+                    });
+        });
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return !deletePayload;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new SequenceInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(getPreamble().getBytes(StandardCharsets.UTF_8)), new FileInputStream(payload)),
+                new ByteArrayInputStream(getEpilogue().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        try (InputStream content = getContent()) {
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = content.read(chunk)) != -1) {
+                outputStream.write(chunk, 0, read);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    private String getPreamble() {
+        return "--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"header\"" + CRLF
+                + "Content-Type: application/json; charset=UTF-8" + CRLF
+                + CRLF
+                + header + CRLF
+                + "--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"payload\"; filename=\"" + fileName.replace("\"", "\\\"") + "\"" + CRLF
+                + "Content-Type: application/octet-stream" + CRLF
+                + CRLF;
+    }
+
+    private String getEpilogue() {
+        return CRLF + "--" + boundary + "--" + CRLF;
+    }
+
+    private void deletePayload(Vertx vertx) {
+        if (deletePayload) {
+            vertx.fileSystem().delete(payload.getPath(), deleteReply -> {
+                if (deleteReply.failed()) {
+                    LOGGER.error("Payload could not be deleted.", deleteReply.cause());
+                }
+            });
+        }
+    }
+}
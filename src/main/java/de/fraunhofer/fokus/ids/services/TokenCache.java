@@ -0,0 +1,170 @@
+package de.fraunhofer.fokus.ids.services;
+
+import de.fraunhofer.fokus.ids.models.Constants;
+import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
+import io.vertx.core.*;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+/**
+ * Caches the DAT used for outgoing IDS messages until shortly before its exp claim. The token is refreshed in the
+ * background ahead of expiry, and concurrent callers share a single request to the auth adapter.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class TokenCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(TokenCache.class.getName());
+    private static TokenCache CACHE;
+
+    private static final long EXPIRY_MARGIN = 30 * 1000;
+    private static final long REFRESH_AHEAD = 60 * 1000;
+    private static final long DEFAULT_LIFETIME = 60 * 1000;
+    private static final long RETRY_DELAY = 10 * 1000;
+
+    private Vertx vertx;
+    private AuthAdapterService authAdapterService;
+    private String token;
+    private long expiresAt = 0;
+    private Future<String> refresh;
+    private long refreshTimer = -1;
+    private long hits = 0;
+    private long misses = 0;
+    private long refreshes = 0;
+    private long refreshFailures = 0;
+
+    private TokenCache(Vertx vertx) {
+        this.vertx = vertx;
+        this.authAdapterService = AuthAdapterService.createProxy(vertx, Constants.AUTHADAPTER_SERVICE);
+    }
+
+    public static synchronized TokenCache getInstance(Vertx vertx) {
+        if (CACHE == null) {
+            CACHE = new TokenCache(vertx);
+        }
+        return CACHE;
+    }
+
+    /**
+     * Returns a token that is valid for at least EXPIRY_MARGIN, waiting for a refresh only if there is none.
+     */
+    public void getToken(Handler<AsyncResult<String>> resultHandler) {
+        Future<String> result;
+        synchronized (this) {
+            if (token != null && System.currentTimeMillis() < expiresAt - EXPIRY_MARGIN) {
+                hits++;
+                result = Future.succeededFuture(token);
+            } else {
+                misses++;
+                result = refresh();
+            }
+        }
+        deliver(result, resultHandler);
+    }
+
+    /**
+     * Returns the last known token right away, even if it is about to expire, and refreshes it in the background.
+     * Only waits if no token was ever retrieved. Used for rejections, which must not be held up by the DAPS.
+     */
+    public void getTokenNow(Handler<AsyncResult<String>> resultHandler) {
+        Future<String> result;
+        synchronized (this) {
+            if (token != null) {
+                if (System.currentTimeMillis() < expiresAt - EXPIRY_MARGIN) {
+                    hits++;
+                } else {
+                    misses++;
+                    refresh();
+                }
+                result = Future.succeededFuture(token);
+            } else {
+                misses++;
+                result = refresh();
+            }
+        }
+        deliver(result, resultHandler);
+    }
+
+    public synchronized JsonObject getMetrics() {
+        return new JsonObject()
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("refreshes", refreshes)
+                .put("refreshFailures", refreshFailures)
+                .put("expiresAt", expiresAt);
+    }
+
+    private synchronized Future<String> refresh() {
+        if (refresh != null) {
+            return refresh;
+        }
+        refreshes++;
+        Promise<String> promise = Promise.promise();
+        refresh = promise.future();
+        authAdapterService.retrieveToken(ar -> {
+            synchronized (this) {
+                refresh = null;
+                if (ar.succeeded()) {
+                    token = ar.result();
+                    expiresAt = readExpiry(token);
+                    scheduleRefresh(expiresAt - REFRESH_AHEAD - System.currentTimeMillis());
+                } else {
+                    refreshFailures++;
+                    scheduleRefresh(RETRY_DELAY);
+                }
+            }
+            if (ar.failed()) {
+                LOGGER.error("Token could not be retrieved.", ar.cause());
+            }
+            promise.handle(ar);
+        });
+        return promise.future();
+    }
+
+    private void scheduleRefresh(long delay) {
+        if (refreshTimer != -1) {
+            vertx.cancelTimer(refreshTimer);
+        }
+        refreshTimer = vertx.setTimer(Math.max(delay, RETRY_DELAY), id -> {
+            synchronized (this) {
+                refreshTimer = -1;
+                refresh();
+            }
+        });
+    }
+
+    private long readExpiry(String jwt) {
+        Long exp = readExpiryClaim(jwt);
+        if (exp != null) {
+            return exp;
+        }
+        LOGGER.info("Token expiry could not be read, caching it for " + DEFAULT_LIFETIME + " ms.");
+        return System.currentTimeMillis() + DEFAULT_LIFETIME;
+    }
+
+    /**
+     * Reads the exp claim of a JWT in milliseconds, or null if the token has none or is not a JWT.
+     */
+    static Long readExpiryClaim(String jwt) {
+        try {
+            String[] parts = jwt.split("\\.");
+            JsonObject claims = new JsonObject(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+            Long exp = claims.getLong("exp");
+            return exp == null ? null : exp * 1000;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void deliver(Future<String> result, Handler<AsyncResult<String>> resultHandler) {
+        Context context = Vertx.currentContext();
+        if (context == null || result.isComplete()) {
+            result.onComplete(resultHandler);
+        } else {
+            result.onComplete(ar -> context.runOnContext(v -> resultHandler.handle(ar)));
+        }
+    }
+}
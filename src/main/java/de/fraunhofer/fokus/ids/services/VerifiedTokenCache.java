@@ -0,0 +1,143 @@
+package de.fraunhofer.fokus.ids.services;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+/**
+ * Bounded LRU cache of the verification results of inbound security tokens. Tokens are stored as SHA-256 hashes only.
+ * A positive result is kept until the exp claim of the token, a negative one for the configured negative TTL.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class VerifiedTokenCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(VerifiedTokenCache.class.getName());
+    private static final VerifiedTokenCache CACHE = new VerifiedTokenCache();
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long negativeTtl = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long rejectedHits = 0;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private VerifiedTokenCache() {
+    }
+
+    public static VerifiedTokenCache getInstance() {
+        return CACHE;
+    }
+
+    /**
+     * Reads "maxentries" and "negativettl" (milliseconds, 0 disables caching of rejections) from the given config.
+     */
+    public synchronized void configure(JsonObject config) {
+        this.maxEntries = config.getInteger("maxentries", DEFAULT_MAX_ENTRIES);
+        this.negativeTtl = config.getLong("negativettl", 0L);
+        entries.clear();
+    }
+
+    /**
+     * Answers from the cache if the token was verified before, otherwise runs the verifier and caches its result.
+     */
+    public void verify(String token, Consumer<Handler<AsyncResult<?>>> verifier, Handler<AsyncResult<Void>> resultHandler) {
+        String key = hash(token);
+        Boolean cachedResult = null;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() < entry.expiresAt) {
+                cachedResult = entry.valid;
+                if (entry.valid) {
+                    hits++;
+                } else {
+                    rejectedHits++;
+                }
+            } else {
+                if (entry != null) {
+                    entries.remove(key);
+                }
+                misses++;
+            }
+        }
+        if (cachedResult != null) {
+            if (cachedResult) {
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                resultHandler.handle(Future.failedFuture("Token was rejected before."));
+            }
+            return;
+        }
+        verifier.accept(reply -> {
+            if (reply.succeeded()) {
+                Long expiresAt = TokenCache.readExpiryClaim(token);
+                if (expiresAt != null) {
+                    put(key, new Entry(true, expiresAt));
+                }
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                if (negativeTtl > 0) {
+                    put(key, new Entry(false, System.currentTimeMillis() + negativeTtl));
+                }
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    public synchronized void flush() {
+        entries.clear();
+        LOGGER.info("Verified token cache flushed.");
+    }
+
+    public synchronized JsonObject getMetrics() {
+        return new JsonObject()
+                .put("hits", hits)
+                .put("rejectedHits", rejectedHits)
+                .put("misses", misses)
+                .put("size", entries.size())
+                .put("maxEntries", maxEntries);
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    private String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //every JVM ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final boolean valid;
+        private final long expiresAt;
+
+        private Entry(boolean valid, long expiresAt) {
+            this.valid = valid;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
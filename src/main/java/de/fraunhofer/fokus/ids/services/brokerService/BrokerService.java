@@ -7,6 +7,7 @@ import io.vertx.codegen.annotations.VertxGen;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClient;
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -22,17 +23,17 @@ public interface BrokerService {
     BrokerService unsubscribe(String url, Handler<AsyncResult<Void>> readyHandler);
 
     @Fluent
-    BrokerService subscribeAll(Handler<AsyncResult<Void>> readyHandler);
+    BrokerService subscribeAll(Handler<AsyncResult<JsonObject>> readyHandler);
 
     @Fluent
-    BrokerService unsubscribeAll(Handler<AsyncResult<Void>> readyHandler);
+    BrokerService unsubscribeAll(Handler<AsyncResult<JsonObject>> readyHandler);
 
     @Fluent
-    BrokerService update(Handler<AsyncResult<Void>> readyHandler);
+    BrokerService update(Handler<AsyncResult<JsonObject>> readyHandler);
 
     @GenIgnore
-    static BrokerService create(Vertx vertx, WebClient webClient, Handler<AsyncResult<BrokerService>> readyHandler) {
-        return new BrokerServiceImpl(vertx, webClient, readyHandler);
+    static BrokerService create(Vertx vertx, WebClient webClient, JsonObject config, Handler<AsyncResult<BrokerService>> readyHandler) {
+        return new BrokerServiceImpl(vertx, webClient, config, readyHandler);
     }
 
     @GenIgnore
@@ -1,6 +1,11 @@
 package de.fraunhofer.fokus.ids.services.brokerService;
 
 import de.fraunhofer.fokus.ids.persistence.managers.BrokerManager;
+import de.fraunhofer.fokus.ids.persistence.managers.BrokerOutboxManager;
+import de.fraunhofer.fokus.ids.persistence.util.BrokerNotification;
+import de.fraunhofer.fokus.ids.services.CachedConnector;
+import de.fraunhofer.fokus.ids.services.CachedConnector.Representation;
+import de.fraunhofer.fokus.ids.services.CircuitBreakers;
 import de.fraunhofer.fokus.ids.services.ConfigService;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.utils.IDSMessageParser;
@@ -9,25 +14,30 @@ import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
 import io.vertx.core.*;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.client.WebClient;
-import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.StringBody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -41,66 +51,137 @@ public class BrokerServiceImpl implements BrokerService {
     private WebClient webClient;
     private Serializer serializer;
     private ConfigService configService;
+    private Vertx vertx;
+    private static final long DEFAULT_UPDATE_QUIET_WINDOW = 2000;
+    private static final long DEFAULT_UPDATE_MAX_DELAY = 30000;
+    private static final long DEFAULT_UPDATE_INTERVAL = 10000;
 
-    public BrokerServiceImpl(Vertx vertx, WebClient webClient, Handler<AsyncResult<BrokerService>> readyHandler){
+    //update scheduling, only touched on the context of this worker verticle
+    private long updateQuietWindow;
+    private long updateMaxDelay;
+    private long updateInterval;
+    private long updateTimerId = -1;
+    private long firstPendingUpdate = -1;
+    private long lastUpdate = 0;
+    private int pendingUpdates = 0;
+    private boolean updateRunning = false;
+
+    //delta updates against the last catalog each broker acknowledged, which is stored with its outbox row
+    private static final int DEFAULT_DELTA_THRESHOLD = 20;
+    private boolean deltaUpdates;
+    private int deltaThreshold;
+
+    //outbox delivery, retried with exponential backoff and jitter
+    private static final long DEFAULT_RETRY_BASE = 5000;
+    private static final long DEFAULT_RETRY_MAX = 15 * 60 * 1000;
+    private static final int DEFAULT_RETRY_ATTEMPTS = 50;
+    private static final long DEFAULT_OUTBOX_POLL = 5000;
+    private static final int DEFAULT_OUTBOX_BATCH = 100;
+    private static final long DEFAULT_OUTBOX_LEASE = 60000;
+    private BrokerOutboxManager outboxManager;
+    private long retryBase;
+    private long retryMax;
+    private int retryAttempts;
+    private int outboxBatch;
+    private long outboxLease;
+    private boolean delivering = false;
+    private boolean deliverAgain = false;
+    private final Random random = new Random();
+
+    public BrokerServiceImpl(Vertx vertx, WebClient webClient, JsonObject config, Handler<AsyncResult<BrokerService>> readyHandler){
+        this.vertx = vertx;
+        this.updateQuietWindow = config.getLong("updatequietwindow", DEFAULT_UPDATE_QUIET_WINDOW);
+        this.updateMaxDelay = config.getLong("updatemaxdelay", DEFAULT_UPDATE_MAX_DELAY);
+        this.updateInterval = config.getLong("updateinterval", DEFAULT_UPDATE_INTERVAL);
+        this.deltaUpdates = config.getBoolean("deltaupdates", true);
+        this.deltaThreshold = config.getInteger("deltathreshold", DEFAULT_DELTA_THRESHOLD);
+        this.retryBase = config.getLong("retrybase", DEFAULT_RETRY_BASE);
+        this.retryMax = config.getLong("retrymax", DEFAULT_RETRY_MAX);
+        this.retryAttempts = config.getInteger("retryattempts", DEFAULT_RETRY_ATTEMPTS);
+        this.outboxBatch = config.getInteger("outboxbatch", DEFAULT_OUTBOX_BATCH);
+        this.outboxLease = config.getLong("outboxlease", DEFAULT_OUTBOX_LEASE);
         this.brokerManager = new BrokerManager();
+        this.outboxManager = new BrokerOutboxManager();
         this.idsService = new IDSService(vertx);
         this.webClient = webClient;
         this.serializer = new Serializer();
         this.configService = new ConfigService(vertx);
+        //picks up notifications whose backoff expired and those left over from a previous run
+        vertx.setPeriodic(config.getLong("outboxpoll", DEFAULT_OUTBOX_POLL), id -> deliver());
         readyHandler.handle(Future.succeededFuture(this));
     }
 
+    /**
+     * Writes a SUBSCRIBE notification for the broker to the outbox and returns without waiting for the delivery.
+     */
     @Override
     public BrokerService subscribe(String url, Handler<AsyncResult<Void>> resultHandler){
-        Promise<Connector> connectorPromise = Promise.promise();
-        Promise<Message> messagePromise = Promise.promise();
-        createAvailableIDSMessages(connectorPromise, messagePromise);
-
-        sendSingle(url, connectorPromise.future(), messagePromise.future(), resultHandler);
+        enqueue(Collections.singletonList(url), BrokerNotification.SUBSCRIBE, resultHandler);
         return this;
     }
 
     @Override
-    public BrokerService subscribeAll(Handler<AsyncResult<Void>> resultHandler){
-        Promise<Connector> connectorPromise = Promise.promise();
-        Promise<Message> messagePromise = Promise.promise();
-        createAvailableIDSMessages(connectorPromise, messagePromise);
-
-        sendMulti(connectorPromise.future(), messagePromise.future(), resultHandler);
-        return this;
-    }
-
-    private void createAvailableIDSMessages(Promise<Connector> connectorPromise, Promise<Message> messagePromise) {
-        configService.getConfiguration(reply -> {
-            if(reply.succeeded()) {
-                idsService.getConnector(reply.result(), connectorPromise);
-                idsService.createRegistrationMessage(reply.result(), messagePromise);
-            } else {
-                LOGGER.info(reply.cause());
-                connectorPromise.fail(reply.cause());
-                messagePromise.fail(reply.cause());
+    public BrokerService subscribeAll(Handler<AsyncResult<JsonObject>> resultHandler){
+        getBrokerURLs(reply -> {
+            List<String> urls = new ArrayList<>();
+            for (URL url : reply.result()) {
+                urls.add(url.toString());
             }
+            enqueue(urls, BrokerNotification.SUBSCRIBE, enqueueReply -> resultHandler.handle(enqueueReply.map(new JsonObject().put("status", "scheduled"))));
         });
+        return this;
     }
 
+    /**
+     * Writes an UNSUBSCRIBE notification for every registered broker to the outbox and returns without waiting for the
+     * delivery. It is used before the configuration is changed, so it has to carry the connector identity that is about
+     * to be replaced. Its message is therefore built right away and stored with the notification, instead of when the
+     * row is delivered.
+     */
     @Override
-    public BrokerService unsubscribeAll(Handler<AsyncResult<Void>> resultHandler){
+    public BrokerService unsubscribeAll(Handler<AsyncResult<JsonObject>> resultHandler){
         Promise<Connector> connectorPromise = Promise.promise();
         Promise<Message> messagePromise = Promise.promise();
         createUnavailableIDSMessages(connectorPromise, messagePromise);
 
-        sendMulti(connectorPromise.future(), messagePromise.future(), resultHandler);
+        CompositeFuture.all(connectorPromise.future(), messagePromise.future()).onComplete(reply -> {
+            if(reply.failed()) {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+                return;
+            }
+            HttpEntity entity = createBrokerMessage((ConnectorNotificationMessage) messagePromise.future().result(), connectorPromise.future().result());
+            if(entity == null) {
+                LOGGER.error("Message could not be created.");
+                resultHandler.handle(Future.failedFuture("Message could not be created."));
+                return;
+            }
+            String payload;
+            try {
+                payload = toBuffer(entity).toString(StandardCharsets.UTF_8.name());
+            } catch (IOException e) {
+                LOGGER.error(e);
+                resultHandler.handle(Future.failedFuture(e));
+                return;
+            }
+            getBrokerURLs(urlReply -> {
+                List<String> urls = new ArrayList<>();
+                for (URL url : urlReply.result()) {
+                    urls.add(url.toString());
+                }
+                enqueue(urls, BrokerNotification.UNSUBSCRIBE, payload, entity.getContentType().getValue(),
+                        enqueueReply -> resultHandler.handle(enqueueReply.map(new JsonObject().put("status", "scheduled"))));
+            });
+        });
         return  this;
     }
 
+    /**
+     * Writes an UNSUBSCRIBE notification for the broker to the outbox and returns without waiting for the delivery.
+     */
     @Override
     public BrokerService unsubscribe(String url, Handler<AsyncResult<Void>> resultHandler){
-        Promise<Connector> connectorPromise = Promise.promise();
-        Promise<Message> messagePromise = Promise.promise();
-        createUnavailableIDSMessages(connectorPromise, messagePromise);
-
-        sendSingle(url, connectorPromise.future(), messagePromise.future(), resultHandler);
+        enqueue(Collections.singletonList(url), BrokerNotification.UNSUBSCRIBE, resultHandler);
         return this;
     }
 
@@ -117,113 +198,357 @@ public class BrokerServiceImpl implements BrokerService {
         });
     }
 
+    /**
+     * Schedules an update of the connector at all brokers and returns immediately. When it is due, an UPDATE
+     * notification is written to the outbox for every registered broker. Updates requested within the quiet
+     * window of each other are sent as one, but never later than the max delay after the first of them. Two updates
+     * are at least the update interval apart and never overlap, which caps the rate at which every broker receives them.
+     * The connector is built when the update is sent, so the brokers always get the latest state.
+     * A broker whose last acknowledged catalog is known only receives a ResourceUpdateMessage per added or changed and a
+     * ResourceUnavailableMessage per removed resource. It gets the full connector if it has no snapshot yet, a delta
+     * message failed before, or more resources changed than the delta threshold allows.
+     */
     @Override
-    public BrokerService update(Handler<AsyncResult<Void>> resultHandler){
-        Promise<Connector> connectorPromise = Promise.promise();
-        Promise<Message> messagePromise = Promise.promise();
-        createUpdateIDSMessages(connectorPromise, messagePromise);
-
-        sendMulti(connectorPromise.future(), messagePromise.future(), resultHandler);
+    public BrokerService update(Handler<AsyncResult<JsonObject>> resultHandler){
+        long now = System.currentTimeMillis();
+        pendingUpdates++;
+        if(firstPendingUpdate < 0) {
+            firstPendingUpdate = now;
+        }
+        scheduleUpdate(now);
+        resultHandler.handle(Future.succeededFuture(new JsonObject().put("status", "scheduled")));
         return this;
     }
 
-    private void createUpdateIDSMessages(Promise<Connector> connectorPromise, Promise<Message> messagePromise) {
-        configService.getConfiguration(reply -> {
+    private void scheduleUpdate(long now) {
+        if(updateRunning) {
+            //rescheduled once the running update is finished
+            return;
+        }
+        if(updateTimerId != -1) {
+            vertx.cancelTimer(updateTimerId);
+        }
+        long due = Math.min(now + updateQuietWindow, firstPendingUpdate + updateMaxDelay);
+        due = Math.max(due, lastUpdate + updateInterval);
+        updateTimerId = vertx.setTimer(Math.max(1, due - now), id -> sendUpdate());
+    }
+
+    private void sendUpdate() {
+        LOGGER.info("Sending connector update to brokers for " + pendingUpdates + " change(s).");
+        updateTimerId = -1;
+        firstPendingUpdate = -1;
+        pendingUpdates = 0;
+        updateRunning = true;
+
+        getBrokerURLs(reply -> {
+            List<String> urls = new ArrayList<>();
+            for (URL url : reply.result()) {
+                urls.add(url.toString());
+            }
+            enqueue(urls, BrokerNotification.UPDATE, this::finishUpdate);
+        });
+    }
+
+    private void finishUpdate(AsyncResult<Void> reply) {
+        updateRunning = false;
+        lastUpdate = System.currentTimeMillis();
+        if(reply.failed()) {
+            LOGGER.error("Connector update could not be written to the outbox.", reply.cause());
+        }
+        if(pendingUpdates > 0) {
+            scheduleUpdate(lastUpdate);
+        }
+    }
+
+    private void enqueue(List<String> urls, BrokerNotification notification, Handler<AsyncResult<Void>> resultHandler) {
+        enqueue(urls, notification, null, null, resultHandler);
+    }
+
+    private void enqueue(List<String> urls, BrokerNotification notification, String payload, String payloadType, Handler<AsyncResult<Void>> resultHandler) {
+        List<Future> written = new ArrayList<>();
+        for (String url : urls) {
+            Promise<Void> promise = Promise.promise();
+            outboxManager.enqueue(url, notification, payload, payloadType, promise);
+            written.add(promise.future());
+        }
+        CompositeFuture.all(written).onComplete(reply -> {
+            deliver();
             if(reply.succeeded()) {
-                idsService.getConnector(reply.result(), connectorPromise);
-                idsService.createUpdateMessage(reply.result(), messagePromise);
+                resultHandler.handle(Future.succeededFuture());
             } else {
-                LOGGER.info(reply.cause());
-                connectorPromise.fail(reply.cause());
-                messagePromise.fail(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
             }
         });
     }
 
-    private void sendSingle(String url, Future<Connector> connectorFuture, Future messageFuture, Handler<AsyncResult<Void>> resultHandler){
-        CompositeFuture.all(connectorFuture, messageFuture).onComplete(reply -> {
-            if(reply.succeeded()) {
-                List<URL> urls = new ArrayList<>();
+    /**
+     * Delivers the due notifications of the outbox. Only one round runs at a time, a round requested meanwhile starts
+     * right after it. A failed delivery is retried after base * 2^(attempts - 1), capped at the maximum, of which a random
+     * half is waited, so brokers coming back up are not hit by all retries at once.
+     */
+    private void deliver() {
+        if(delivering) {
+            deliverAgain = true;
+            return;
+        }
+        delivering = true;
+        deliverAgain = false;
+        outboxManager.claimDue(outboxBatch, outboxLease, dueReply -> {
+            if(dueReply.failed() || dueReply.result().isEmpty()) {
+                finishDelivery(false);
+                return;
+            }
+            List<JsonObject> rows = dueReply.result();
+            prepareDelivery(prepareReply -> {
+                List<Future> recorded = new ArrayList<>();
+                for (JsonObject row : rows) {
+                    Outcome outcome = new Outcome(row.getJsonObject("snapshot"));
+                    Future<Void> delivery = prepareReply.succeeded() ? deliver(row, prepareReply.result(), outcome) : Future.failedFuture(prepareReply.cause());
+                    recorded.add(record(row, delivery, outcome));
+                }
+                CompositeFuture.join(recorded).onComplete(ar -> finishDelivery(rows.size() == outboxBatch));
+            });
+        });
+    }
+
+    private void finishDelivery(boolean more) {
+        delivering = false;
+        if(more || deliverAgain) {
+            deliver();
+        }
+    }
+
+    private void prepareDelivery(Handler<AsyncResult<Delivery>> resultHandler) {
+        configService.getConfiguration(configReply -> {
+            if(configReply.failed()) {
+                resultHandler.handle(Future.failedFuture(configReply.cause()));
+                return;
+            }
+            idsService.getCachedConnector(configReply.result(), connectorReply -> {
+                if(connectorReply.failed()) {
+                    resultHandler.handle(Future.failedFuture(connectorReply.cause()));
+                    return;
+                }
                 try {
-                    urls.add(new URL(url));
-                    sendMessage(createBrokerMessage((ConnectorNotificationMessage) messageFuture.result(), connectorFuture.result()), urls, resultHandler);
-                } catch (MalformedURLException e) {
+                    resultHandler.handle(Future.succeededFuture(new Delivery(configReply.result(), connectorReply.result(), connectorReply.result().getResources(serializer))));
+                } catch (IOException e) {
                     LOGGER.error(e);
                     resultHandler.handle(Future.failedFuture(e));
                 }
-            }
-            else{
-                LOGGER.error(reply.cause());
-                resultHandler.handle(Future.failedFuture(reply.cause()));
-            }
+            });
         });
     }
 
-    private void sendMulti(Future<Connector> connectorFuture, Future messageFuture, Handler<AsyncResult<Void>> resultHandler){
-        CompositeFuture.all(connectorFuture, messageFuture).onComplete(reply -> {
-            if(reply.succeeded()){
-                getBrokerURLs(reply2 -> {
-                    if (reply2.succeeded()) {
-                        if(!reply2.result().isEmpty()) {
-                            sendMessage(createBrokerMessage((ConnectorNotificationMessage) messageFuture.result(), connectorFuture.result()), reply2.result(), resultHandler);
-                        }
-                        else {
-                            resultHandler.handle(Future.succeededFuture());
-                        }
-                    } else{
-                        LOGGER.error(reply2.cause());
-                        resultHandler.handle(Future.failedFuture(reply2.cause()));
-                    }
+    /**
+     * Sends the stored payload of the row first, if there is one, and the notification of the row after it. A payload
+     * is an unregistration that already replaces an UNSUBSCRIBE. A broker that rejects it does not list that connector
+     * identity, so a rejection counts as delivered.
+     */
+    private Future<Void> deliver(JsonObject row, Delivery delivery, Outcome outcome) {
+        URL url;
+        try {
+            url = new URL(row.getString("url"));
+        } catch (MalformedURLException e) {
+            return Future.failedFuture(e);
+        }
+        BrokerNotification notification = BrokerNotification.valueOf(row.getString("type"));
+        String payload = row.getString("payload");
+        if(payload == null) {
+            return deliver(url, notification, delivery, outcome);
+        }
+        //the broker drops the connector, so it starts over with the full connector
+        outcome.snapshot = null;
+        return post(url, row.getString("payload_type"), Buffer.buffer(payload, StandardCharsets.UTF_8.name()))
+                .recover(cause -> cause instanceof RejectedException ? Future.succeededFuture() : Future.failedFuture(cause))
+                .compose(v -> {
+                    outcome.payloadDelivered = true;
+                    return notification == BrokerNotification.UNSUBSCRIBE ? Future.succeededFuture() : deliver(url, notification, delivery, outcome);
                 });
-            }
-            else{
-                LOGGER.error(reply.cause());
-                resultHandler.handle(Future.failedFuture(reply.cause()));
+    }
+
+    private Future<Void> deliver(URL url, BrokerNotification notification, Delivery delivery, Outcome outcome) {
+        switch (notification) {
+            case SUBSCRIBE:
+                outcome.snapshot = null;
+                return updateBroker(url, delivery, outcome);
+            case UNSUBSCRIBE:
+                outcome.snapshot = null;
+                return delivery.messages.computeIfAbsent("unavailable", k -> createConnectorUnavailable(delivery))
+                        .compose(message -> post(url, message.contentType, message.body));
+            default:
+                return updateBroker(url, delivery, outcome);
+        }
+    }
+
+    private Future<Void> record(JsonObject row, Future<Void> delivery, Outcome outcome) {
+        Promise<Void> promise = Promise.promise();
+        long id = row.getLong("id");
+        int revision = row.getInteger("revision");
+        delivery.onComplete(ar -> {
+            if(ar.succeeded()) {
+                outboxManager.delivered(id, revision, outcome.payloadDelivered, outcome.snapshot, promise);
+            } else {
+                int attempts = row.getInteger("attempts", 0) + 1;
+                //a malformed URL does not heal by waiting
+                boolean giveUp = ar.cause() instanceof MalformedURLException || (retryAttempts > 0 && attempts >= retryAttempts);
+                long delay = Math.min(retryMax, retryBase * (1L << Math.min(attempts - 1, 30)));
+                delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+                if(giveUp) {
+                    LOGGER.error(row.getString("type") + " for broker " + row.getString("url") + " failed " + attempts + " times, giving up.", ar.cause());
+                } else {
+                    LOGGER.warn(row.getString("type") + " for broker " + row.getString("url") + " failed, retrying in " + delay + " ms: " + ar.cause().getMessage());
+                }
+                outboxManager.failed(id, revision, outcome.payloadDelivered, outcome.snapshot, String.valueOf(ar.cause().getMessage()), delay, giveUp, promise);
             }
         });
+        return promise.future();
     }
 
-    private void sendMessage(HttpEntity buffer, List<URL> urls, Handler<AsyncResult<Void>> resultHandler){
-        if(buffer != null) {
-            if(urls.isEmpty()){
-                resultHandler.handle(Future.succeededFuture());
-            } else {
-                try(ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                    Header contentTypeHeader = buffer.getContentType();
-                    buffer.writeTo(baos);
-                    Buffer brokerMessage = Buffer.buffer().appendString(baos.toString());
-                    for (URL url : urls) {
-                        webClient
-                                .postAbs(url.toString())
-                                .putHeader(contentTypeHeader.getName(), contentTypeHeader.getValue())
-                                .sendBuffer(brokerMessage, ar -> {
-                                    if (ar.succeeded()) {
-                                        Optional<IDSMessage> answer = IDSMessageParser.parse(ar.result().headers().get(HttpHeaders.CONTENT_TYPE), ar.result().bodyAsString());
-                                        if (answer.isPresent() && answer.get().getHeader().isPresent()) {
-                                            if (answer.get().getHeader().get() instanceof RejectionMessage) {
-                                                resultHandler.handle(Future.failedFuture(((RejectionMessage) answer.get().getHeader().get()).getRejectionReason().toString()));
-                                            } else {
-                                                resultHandler.handle(Future.succeededFuture());
-                                            }
-                                        } else {
-                                            resultHandler.handle(Future.succeededFuture());
-                                        }
-                                    } else {
-                                        LOGGER.error(ar.cause());
-                                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                                    }
-                                });
-                    }
-                } catch (IOException e) {
-                    LOGGER.error(e);
-                    resultHandler.handle(Future.failedFuture(e));
+    private Future<Void> updateBroker(URL url, Delivery delivery, Outcome outcome) {
+        JsonObject snapshot = outcome.snapshot;
+        List<String> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        if(deltaUpdates && snapshot != null) {
+            for(String id : delivery.catalog.fieldNames()) {
+                if(!delivery.catalog.getString(id).equals(snapshot.getString(id))) {
+                    changed.add(id);
+                }
+            }
+            for(String id : snapshot.fieldNames()) {
+                if(!delivery.catalog.containsKey(id)) {
+                    removed.add(id);
                 }
             }
         }
-        else{
-            LOGGER.error("Message could not be created.");
-            resultHandler.handle(Future.failedFuture("Message could not be created."));
+        List<Future> sent = new ArrayList<>();
+        if(!deltaUpdates || snapshot == null || changed.size() + removed.size() > deltaThreshold) {
+            sent.add(delivery.messages.computeIfAbsent("connector", k -> createConnectorUpdate(delivery))
+                    .compose(message -> post(url, message.contentType, message.body)));
+        } else {
+            for(String id : changed) {
+                sent.add(delivery.messages.computeIfAbsent("update:" + id, k -> createResourceUpdate(delivery.config, id, delivery.resources.get(id)))
+                        .compose(message -> post(url, message.contentType, message.body)));
+            }
+            for(String id : removed) {
+                sent.add(delivery.messages.computeIfAbsent("unavailable:" + id, k -> createResourceUnavailable(delivery.config, id))
+                        .compose(message -> post(url, message.contentType, message.body)));
+            }
         }
+        Promise<Void> promise = Promise.promise();
+        CompositeFuture.join(sent).onComplete(ar -> {
+            if(ar.succeeded()) {
+                outcome.snapshot = delivery.catalog;
+                promise.complete();
+            } else {
+                //the broker may have missed some of the changes, resynchronize with the full connector next time
+                outcome.snapshot = null;
+                promise.fail(ar.cause());
+            }
+        });
+        return promise.future();
+    }
+
+    private Future<BrokerMessage> createConnectorUpdate(Delivery delivery) {
+        Promise<Message> messagePromise = Promise.promise();
+        idsService.createUpdateMessage(delivery.config, messagePromise);
+        return messagePromise.future().compose(message -> {
+            try {
+                return toBrokerMessage(message, delivery.connector.getJsonLd(serializer));
+            } catch (IOException e) {
+                LOGGER.error(e);
+                return Future.failedFuture(e);
+            }
+        });
+    }
+
+    private Future<BrokerMessage> createConnectorUnavailable(Delivery delivery) {
+        Promise<Message> messagePromise = Promise.promise();
+        idsService.createUnregistrationMessage(delivery.config, messagePromise);
+        return messagePromise.future().compose(message -> {
+            try {
+                return toBrokerMessage(message, delivery.connector.getJsonLd(serializer));
+            } catch (IOException e) {
+                LOGGER.error(e);
+                return Future.failedFuture(e);
+            }
+        });
+    }
+
+    private Future<BrokerMessage> createResourceUpdate(JsonObject config, String id, Representation resource) {
+        Promise<Message> messagePromise = Promise.promise();
+        idsService.createResourceUpdateMessage(config, URI.create(id), messagePromise);
+        return messagePromise.future().compose(message -> toBrokerMessage(message, resource.getBody().toString(StandardCharsets.UTF_8)));
+    }
+
+    private Future<BrokerMessage> createResourceUnavailable(JsonObject config, String id) {
+        Promise<Message> messagePromise = Promise.promise();
+        idsService.createResourceUnavailableMessage(config, URI.create(id), messagePromise);
+        return messagePromise.future().compose(message -> toBrokerMessage(message, null));
+    }
+
+    private Future<BrokerMessage> toBrokerMessage(Message message, String payload) {
+        try {
+            HttpEntity entity = createBrokerMessage(message, payload);
+            return Future.succeededFuture(new BrokerMessage(entity.getContentType().getValue(), toBuffer(entity)));
+        } catch (IOException e) {
+            LOGGER.error(e);
+            return Future.failedFuture(e);
+        }
+    }
+
+    /**
+     * Posts the message to a single broker through the circuit breaker of its URL, so a broker that is down fails at
+     * once. The timeout the breakers report for the URL bounds the whole exchange, not just the idle time of the connection.
+     */
+    private Future<Void> post(URL url, String contentType, Buffer brokerMessage){
+        Promise<Void> result = Promise.promise();
+        long timeout = CircuitBreakers.getInstance().getTimeout(url.toString());
+        CircuitBreakers.getInstance().<Void>execute(url.toString(), promise -> {
+            long timerId = vertx.setTimer(timeout, id -> promise.tryFail(new TimeoutException("Broker " + url + " did not answer within " + timeout + " ms.")));
+            webClient
+                    .postAbs(url.toString())
+                    .putHeader(HttpHeaders.CONTENT_TYPE, contentType)
+                    .timeout(timeout)
+                    .sendBuffer(brokerMessage, ar -> {
+                        vertx.cancelTimer(timerId);
+                        if (ar.succeeded()) {
+                            Optional<IDSMessage> answer = IDSMessageParser.parse(ar.result().headers().get(HttpHeaders.CONTENT_TYPE), ar.result().bodyAsString());
+                            if (answer.isPresent() && answer.get().getHeader().isPresent() && answer.get().getHeader().get() instanceof RejectionMessage) {
+                                promise.tryFail(new RejectedException("Broker " + url + " rejected the message: " + ((RejectionMessage) answer.get().getHeader().get()).getRejectionReason() + "."));
+                            } else {
+                                promise.tryComplete();
+                            }
+                        } else {
+                            promise.tryFail(ar.cause());
+                        }
+                    });
+        }, ar -> {
+            if (ar.failed()) {
+                LOGGER.error(ar.cause());
+            }
+            result.handle(ar);
+        });
+        return result.future();
+    }
+
+    /**
+     * Serializes the entity once, straight into the Buffer that is sent to every broker. Vert.x writes a duplicate of
+     * the underlying bytes per request, so the Buffer can be shared.
+     */
+    private Buffer toBuffer(HttpEntity entity) throws IOException {
+        Buffer buffer = Buffer.buffer(entity.getContentLength() > 0 ? (int) entity.getContentLength() : 4096);
+        entity.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) {
+                buffer.appendByte((byte) b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                buffer.appendBytes(bytes, offset, length);
+            }
+        });
+        return buffer;
     }
 
     private void getBrokerURLs(Handler<AsyncResult<List<URL>>> resultHandler){
@@ -247,21 +572,73 @@ public class BrokerServiceImpl implements BrokerService {
     }
 
     private HttpEntity createBrokerMessage(ConnectorNotificationMessage message, Connector connector){
-
         try{
-            ContentBody result = new StringBody(serializer.serialize(connector), ContentType.create("application/json", StandardCharsets.UTF_8));
-            ContentBody cb = new StringBody(serializer.serialize(message), ContentType.create("application/json", StandardCharsets.UTF_8));
-
-            MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
-                    .setCharset(StandardCharsets.UTF_8)
-                    .setContentType(ContentType.MULTIPART_FORM_DATA)
-                    .addPart("header", cb)
-                    .addPart("payload", result);
-
-            return multipartEntityBuilder.build();
+            return createBrokerMessage(message, serializer.serialize(connector));
         } catch (Exception e){
             LOGGER.error(e);
         }
         return null;
     }
+
+    private HttpEntity createBrokerMessage(Message message, String payload) throws IOException {
+        MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
+                .setCharset(StandardCharsets.UTF_8)
+                .setContentType(ContentType.MULTIPART_FORM_DATA)
+                .addPart("header", new StringBody(serializer.serialize(message), ContentType.create("application/json", StandardCharsets.UTF_8)));
+        if(payload != null) {
+            multipartEntityBuilder.addPart("payload", new StringBody(payload, ContentType.create("application/json", StandardCharsets.UTF_8)));
+        }
+        return multipartEntityBuilder.build();
+    }
+
+    private static class BrokerMessage {
+
+        private final String contentType;
+        private final Buffer body;
+
+        private BrokerMessage(String contentType, Buffer body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private static class RejectedException extends Exception {
+
+        private RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * What the delivery of one row achieved, also if it failed later on. The snapshot is the catalog the broker holds
+     * afterwards, as resource id -> ETag of its JSON-LD, or null if that is unknown and the next update has to be full.
+     */
+    private static class Outcome {
+
+        private boolean payloadDelivered = false;
+        private JsonObject snapshot;
+
+        private Outcome(JsonObject snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * What one delivery round shares between all brokers. Messages are built at most once per round.
+     */
+    private static class Delivery {
+
+        private final JsonObject config;
+        private final CachedConnector connector;
+        private final Map<String, Representation> resources;
+        private final JsonObject catalog = new JsonObject();
+        private final Map<String, Future<BrokerMessage>> messages = new HashMap<>();
+
+        private Delivery(JsonObject config, CachedConnector connector, Map<String, Representation> resources) {
+            this.config = config;
+            this.connector = connector;
+            this.resources = resources;
+            resources.forEach((id, representation) -> catalog.put(id, representation.getEtag()));
+        }
+    }
 }
@@ -1,8 +1,12 @@
 package de.fraunhofer.fokus.ids.services.brokerService;
 
 import de.fraunhofer.fokus.ids.models.Constants;
+import io.vertx.config.ConfigRetriever;
+import io.vertx.config.ConfigRetrieverOptions;
+import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.client.WebClient;
@@ -16,18 +20,33 @@ public class BrokerServiceVerticle extends AbstractVerticle {
     public void start(Promise<Void> startPromise) {
 
         WebClient webClient = WebClient.create(vertx);
-        BrokerService.create(vertx, webClient, ready -> {
-            if (ready.succeeded()) {
-                ServiceBinder binder = new ServiceBinder(vertx);
-                binder
-                        .setAddress(Constants.BROKER_SERVICE)
-                        .register(BrokerService.class, ready.result());
-                LOGGER.info("BrokerService successfully started.");
-                startPromise.complete();
+
+        ConfigStoreOptions confStore = new ConfigStoreOptions()
+                .setType("env");
+
+        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
+
+        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
+
+        retriever.getConfig(ar -> {
+            if (ar.succeeded()) {
+                BrokerService.create(vertx, webClient, ar.result().getJsonObject("BROKER_CONFIG", new JsonObject()), ready -> {
+                    if (ready.succeeded()) {
+                        ServiceBinder binder = new ServiceBinder(vertx);
+                        binder
+                                .setAddress(Constants.BROKER_SERVICE)
+                                .register(BrokerService.class, ready.result());
+                        LOGGER.info("BrokerService successfully started.");
+                        startPromise.complete();
+                    } else {
+                        LOGGER.error(ready.cause());
+                        startPromise.fail(ready.cause());
+                    }
+                });
             } else {
-                LOGGER.error(ready.cause());
-                startPromise.fail(ready.cause());
+                LOGGER.error(ar.cause());
+                startPromise.fail(ar.cause());
             }
         });
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,380 @@
+package de.fraunhofer.fokus.ids.services.datasourceAdapter;
+
+import de.fraunhofer.fokus.ids.services.CircuitBreakers;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.apache.http.entity.ContentType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * Pipes the file returned by a data source adapter directly into an HTTP response instead of waiting for a complete
+ * temporary file. Runs on the event loop of the verticle that owns the response, since the response cannot be handed
+ * over the event bus, so the shared transfers need no locking.
+ * Concurrent requests for the same distribution and file type share one transfer from the adapter. It is written to a
+ * temporary file that every response reads from at its own pace while the transfer is still running, so a request
+ * joining late gets the beginning from disk and then follows the adapter. Requests without a distribution and file
+ * type are piped on their own, pausing the adapter whenever the write queue of the response is full.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class AdapterResponseStreamer {
+
+    private Logger LOGGER = LoggerFactory.getLogger(AdapterResponseStreamer.class.getName());
+    private static final int READ_SIZE = 64 * 1024;
+    private Vertx vertx;
+    private HttpClient httpClient;
+    private CircuitBreakers breakers = CircuitBreakers.getInstance();
+    //running transfers by distribution id and file type, removed once the adapter sent everything
+    private final Map<String, SharedTransfer> transfers = new HashMap<>();
+
+    public AdapterResponseStreamer(Vertx vertx) {
+        this.vertx = vertx;
+        this.httpClient = vertx.createHttpClient();
+    }
+
+    /**
+     * Posts the request to the /getFile/ endpoint of the given adapter and streams its body into the response. A request
+     * for a distribution that is already being transferred joins that transfer instead.
+     * The status line is only written once the adapter answered, so an unreachable adapter is still reported as 500.
+     * A failure after the first byte resets the response, so the client does not take the truncated body as complete.
+     * The circuit breaker of the adapter only sees the request up to the status line, the transfer itself is bounded by
+     * the idle timeout.
+     */
+    public void stream(JsonObject adapter, JsonObject request, HttpServerResponse response, Handler<AsyncResult<Void>> resultHandler) {
+        Promise<Void> promise = Promise.promise();
+        promise.future().onComplete(resultHandler);
+        String key = DataSourceAdapterServiceImpl.getCacheKey(request);
+        if (key == null) {
+            pipe(adapter, request, response, promise);
+            return;
+        }
+        SharedTransfer transfer = transfers.get(key);
+        if (transfer != null) {
+            ArtifactCache.getInstance().coalesced();
+            transfer.attach(response, promise);
+            return;
+        }
+        transfer = new SharedTransfer(key);
+        transfers.put(key, transfer);
+        transfer.attach(response, promise);
+        transfer.start(adapter, request);
+    }
+
+    private void pipe(JsonObject adapter, JsonObject request, HttpServerResponse response, Promise<Void> promise) {
+        connect(adapter, request, e -> fail(response, e, promise), connectReply -> {
+            if (connectReply.failed()) {
+                fail(response, connectReply.cause(), promise);
+                return;
+            }
+            HttpClientResponse adapterResponse = connectReply.result();
+            copyHeaders(adapterResponse, response);
+            //stop the transfer from the adapter if the consumer goes away
+            response.closeHandler(v -> adapterResponse.request().reset());
+            adapterResponse.pipe()
+                    .endOnFailure(false)
+                    .to(response, ar -> {
+                        if (ar.succeeded()) {
+                            promise.tryComplete();
+                        } else {
+                            fail(response, ar.cause(), promise);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Replies with the paused response of the adapter once it answered with 200. Failures after that are passed to the
+     * transferFailureHandler.
+     */
+    private void connect(JsonObject adapter, JsonObject request, Handler<Throwable> transferFailureHandler, Handler<AsyncResult<HttpClientResponse>> resultHandler) {
+        String endpoint = adapter.getString("host") + ":" + adapter.getInteger("port");
+        breakers.<HttpClientResponse>execute(endpoint, connected -> {
+            HttpClientRequest adapterRequest = httpClient.request(HttpMethod.POST, adapter.getInteger("port"), adapter.getString("host"), "/getFile/");
+            adapterRequest.setTimeout(breakers.getTimeout(endpoint));
+            adapterRequest.handler(adapterResponse -> {
+                if (adapterResponse.statusCode() != 200) {
+                    adapterRequest.reset();
+                    connected.tryFail(new IllegalStateException("Adapter answered with status " + adapterResponse.statusCode() + "."));
+                    return;
+                }
+                //no data may arrive before the consumer of the body is set up
+                adapterResponse.pause();
+                connected.tryComplete(adapterResponse);
+            });
+            adapterRequest.exceptionHandler(e -> {
+                if (!connected.tryFail(e)) {
+                    transferFailureHandler.handle(e);
+                }
+            });
+            adapterRequest.putHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType());
+            adapterRequest.end(request.toBuffer());
+        }, resultHandler);
+    }
+
+    private void copyHeaders(HttpClientResponse adapterResponse, HttpServerResponse response) {
+        String contentLength = adapterResponse.getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength != null) {
+            response.putHeader(HttpHeaders.CONTENT_LENGTH, contentLength);
+        } else {
+            response.setChunked(true);
+        }
+        String contentType = adapterResponse.getHeader(HttpHeaders.CONTENT_TYPE);
+        if (contentType != null) {
+            response.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+        }
+    }
+
+    private void fail(HttpServerResponse response, Throwable cause, Promise<Void> promise) {
+        if (!promise.tryFail(cause)) {
+            return;
+        }
+        LOGGER.error("FileContent could not be streamed from adapter.", cause);
+        if (!response.headWritten()) {
+            response.setStatusCode(500).end();
+        } else if (!response.closed()) {
+            //the status line is already sent, abort so the client does not take the truncated body as complete
+            response.reset();
+        }
+    }
+
+    private static class Consumer {
+        private final HttpServerResponse response;
+        private final Promise<Void> promise;
+        private long position = 0;
+        private boolean reading = false;
+        private boolean done = false;
+
+        private Consumer(HttpServerResponse response, Promise<Void> promise) {
+            this.response = response;
+            this.promise = promise;
+        }
+    }
+
+    /**
+     * One transfer from the adapter into a temporary file and the responses reading from it. Writes to the file run one
+     * at a time with the adapter paused, so every byte below "written" can be read. Each response is only read for while
+     * its write queue has room. The transfer is aborted once all consumers went away before it finished, the file is
+     * deleted once it is neither written nor read any more.
+     */
+    private class SharedTransfer {
+        private final String key;
+        private final List<Consumer> consumers = new ArrayList<>();
+        private String path;
+        private AsyncFile file;
+        private HttpClientResponse adapterResponse;
+        private Buffer pending = Buffer.buffer();
+        private long written = 0;
+        private boolean writing = false;
+        private boolean ended = false;
+        private boolean complete = false;
+        private Throwable failure;
+
+        private SharedTransfer(String key) {
+            this.key = key;
+        }
+
+        private void start(JsonObject adapter, JsonObject request) {
+            vertx.fileSystem().createTempFile("odc-transfer-", null, tempReply -> {
+                if (tempReply.failed()) {
+                    abort(tempReply.cause());
+                    return;
+                }
+                path = tempReply.result();
+                if (failure != null) {
+                    cleanup();
+                    return;
+                }
+                vertx.fileSystem().open(path, new OpenOptions(), openReply -> {
+                    if (openReply.failed()) {
+                        abort(openReply.cause());
+                        return;
+                    }
+                    file = openReply.result();
+                    if (failure != null) {
+                        cleanup();
+                        return;
+                    }
+                    connect(adapter, request, this::abort, connectReply -> {
+                        if (connectReply.failed()) {
+                            abort(connectReply.cause());
+                            return;
+                        }
+                        if (failure != null) {
+                            connectReply.result().request().reset();
+                            return;
+                        }
+                        adapterResponse = connectReply.result();
+                        adapterResponse.handler(this::received);
+                        adapterResponse.exceptionHandler(this::abort);
+                        adapterResponse.endHandler(v -> {
+                            ended = true;
+                            flush();
+                        });
+                        new ArrayList<>(consumers).forEach(this::begin);
+                        adapterResponse.resume();
+                    });
+                });
+            });
+        }
+
+        private void attach(HttpServerResponse response, Promise<Void> promise) {
+            Consumer consumer = new Consumer(response, promise);
+            consumers.add(consumer);
+            response.closeHandler(v -> detach(consumer));
+            if (adapterResponse != null) {
+                begin(consumer);
+            }
+        }
+
+        private void begin(Consumer consumer) {
+            copyHeaders(adapterResponse, consumer.response);
+            read(consumer);
+        }
+
+        private void detach(Consumer consumer) {
+            if (consumer.done) {
+                return;
+            }
+            consumer.done = true;
+            consumers.remove(consumer);
+            consumer.promise.tryFail(new IllegalStateException("Consumer closed the connection."));
+            if (consumers.isEmpty() && !complete) {
+                abort(new IllegalStateException("All consumers of " + key + " went away."));
+            } else {
+                cleanup();
+            }
+        }
+
+        private void received(Buffer buffer) {
+            pending.appendBuffer(buffer);
+            flush();
+        }
+
+        private void flush() {
+            if (writing || failure != null) {
+                return;
+            }
+            if (pending.length() == 0) {
+                if (ended && !complete) {
+                    complete = true;
+                    transfers.remove(key, this);
+                    new ArrayList<>(consumers).forEach(this::read);
+                    cleanup();
+                }
+                return;
+            }
+            writing = true;
+            Buffer chunk = pending;
+            pending = Buffer.buffer();
+            adapterResponse.pause();
+            file.write(chunk, written, writeReply -> {
+                writing = false;
+                if (failure != null) {
+                    cleanup();
+                    return;
+                }
+                if (writeReply.failed()) {
+                    abort(writeReply.cause());
+                    return;
+                }
+                written += chunk.length();
+                new ArrayList<>(consumers).forEach(this::read);
+                adapterResponse.resume();
+                flush();
+            });
+        }
+
+        private void read(Consumer consumer) {
+            if (consumer.reading || consumer.done || failure != null) {
+                return;
+            }
+            if (consumer.response.writeQueueFull()) {
+                consumer.response.drainHandler(v -> read(consumer));
+                return;
+            }
+            if (consumer.position < written) {
+                int length = (int) Math.min(written - consumer.position, READ_SIZE);
+                consumer.reading = true;
+                file.read(Buffer.buffer(length), 0, consumer.position, length, readReply -> {
+                    consumer.reading = false;
+                    if (consumer.done || failure != null) {
+                        cleanup();
+                        return;
+                    }
+                    if (readReply.failed()) {
+                        consumers.remove(consumer);
+                        consumer.done = true;
+                        fail(consumer.response, readReply.cause(), consumer.promise);
+                        cleanup();
+                        return;
+                    }
+                    consumer.position += length;
+                    consumer.response.write(readReply.result());
+                    read(consumer);
+                });
+            } else if (complete) {
+                consumers.remove(consumer);
+                consumer.done = true;
+                consumer.response.end();
+                consumer.promise.tryComplete();
+                cleanup();
+            }
+        }
+
+        private void abort(Throwable cause) {
+            if (failure != null) {
+                return;
+            }
+            failure = cause;
+            transfers.remove(key, this);
+            if (adapterResponse != null) {
+                adapterResponse.request().reset();
+            }
+            for (Consumer consumer : new ArrayList<>(consumers)) {
+                consumer.done = true;
+                fail(consumer.response, cause, consumer.promise);
+            }
+            consumers.clear();
+            cleanup();
+        }
+
+        private void cleanup() {
+            if (path == null || writing || !consumers.isEmpty() || (!complete && failure == null)) {
+                return;
+            }
+            String obsolete = path;
+            path = null;
+            if (file != null) {
+                file.close(closeReply -> delete(obsolete));
+                file = null;
+            } else {
+                delete(obsolete);
+            }
+        }
+
+        private void delete(String obsolete) {
+            vertx.fileSystem().delete(obsolete, deleteReply -> {
+                if (deleteReply.failed()) {
+                    LOGGER.error("Transfer file " + obsolete + " could not be deleted.", deleteReply.cause());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package de.fraunhofer.fokus.ids.services.datasourceAdapter;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+/**
+ * Disk cache of the files delivered by data source adapters, kept in the "artifact-cache" directory below REPOSITORY.
+ * Entries are looked up by distribution id and file type. The file of an entry is named after the hash of that key
+ * and the version the adapter reported (ETag or Last-Modified), so a new version never overwrites a file that is
+ * still being sent. Downloads are renamed into the cache only once complete.
+ * Within the TTL an entry is served without asking the adapter, afterwards it is revalidated with a conditional
+ * request. The total size is bounded, the least recently used entries are evicted first.
+ * The cache is shared by the adapter service verticle and the MainVerticle, so access is synchronized.
+ *
+ * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
+ */
+public class ArtifactCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ArtifactCache.class.getName());
+    private static final ArtifactCache CACHE = new ArtifactCache();
+    private static final String DIRECTORY = "artifact-cache/";
+    //disabled unless configured, adapter payloads are then streamed to the consumer without touching the disk
+    private static final long DEFAULT_TTL = 0;
+    private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+    //a path handed out just before its entry was evicted is still opened by its consumer, so deletion is delayed
+    private static final long DELETE_DELAY = 60 * 1000;
+
+    private Vertx vertx;
+    private String directory;
+    private long ttl = 0;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes = 0;
+    private long hits = 0;
+    private long revalidations = 0;
+    private long misses = 0;
+    private long bytesSaved = 0;
+    private long evictions = 0;
+    private long coalesced = 0;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private ArtifactCache() {
+    }
+
+    public static ArtifactCache getInstance() {
+        return CACHE;
+    }
+
+    /**
+     * Reads "ttl" (milliseconds, 0 or missing disables the cache) and "maxbytes" from the given config. Files left over from
+     * a previous run are removed, since their index is gone.
+     */
+    public void configure(Vertx vertx, String repository, JsonObject config, Handler<AsyncResult<Void>> resultHandler) {
+        String cacheDirectory = repository + DIRECTORY;
+        synchronized (this) {
+            this.vertx = vertx;
+            this.directory = cacheDirectory;
+            this.ttl = config.getLong("ttl", DEFAULT_TTL);
+            this.maxBytes = config.getLong("maxbytes", DEFAULT_MAX_BYTES);
+            entries.clear();
+            bytes = 0;
+        }
+        vertx.fileSystem().deleteRecursive(cacheDirectory, true, deleteReply ->
+                vertx.fileSystem().mkdirs(cacheDirectory, mkdirReply -> {
+                    if (mkdirReply.failed()) {
+                        LOGGER.error("Artifact cache directory could not be created, caching is disabled.", mkdirReply.cause());
+                        synchronized (this) {
+                            ttl = 0;
+                        }
+                    }
+                    resultHandler.handle(Future.succeededFuture());
+                }));
+    }
+
+    public synchronized boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * Whether the path belongs to the cache. Such files are managed here and must not be deleted by their consumers.
+     */
+    public synchronized boolean isCachedPath(String path) {
+        return directory != null && path.startsWith(directory);
+    }
+
+    /**
+     * Returns the entry for the key, or null if there is none. Fresh entries count as hits, stale ones have to be
+     * revalidated with the adapter and are counted by revalidated() or stored() instead.
+     */
+    public synchronized Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isFresh()) {
+            hits++;
+            bytesSaved += entry.size;
+        }
+        return entry;
+    }
+
+    /**
+     * Extends the TTL of an entry the adapter confirmed as unchanged.
+     */
+    public synchronized void revalidated(String key, Entry entry) {
+        revalidations++;
+        bytesSaved += entry.size;
+        if (entries.get(key) == entry) {
+            entry.expiresAt = System.currentTimeMillis() + ttl;
+        }
+    }
+
+    /**
+     * Moves a completely downloaded file into the cache and returns the path it can be read from. Files larger than the
+     * whole cache are not cached, their download path is returned unchanged.
+     */
+    public void store(String key, String downloadPath, String validatorHeader, String version, Handler<AsyncResult<String>> resultHandler) {
+        vertx.fileSystem().props(downloadPath, propsReply -> {
+            if (propsReply.failed()) {
+                resultHandler.handle(Future.failedFuture(propsReply.cause()));
+                return;
+            }
+            long size = propsReply.result().size();
+            String path;
+            synchronized (this) {
+                misses++;
+                if (size > maxBytes || ttl <= 0) {
+                    path = null;
+                } else {
+                    path = directory + hash(key + "\n" + version);
+                }
+            }
+            if (path == null) {
+                resultHandler.handle(Future.succeededFuture(downloadPath));
+                return;
+            }
+            vertx.fileSystem().move(downloadPath, path, new CopyOptions().setReplaceExisting(true).setAtomicMove(true), moveReply -> {
+                if (moveReply.failed()) {
+                    LOGGER.error("Artifact could not be moved into the cache.", moveReply.cause());
+                    resultHandler.handle(Future.succeededFuture(downloadPath));
+                    return;
+                }
+                Entry entry = new Entry(path, size, validatorHeader, version, System.currentTimeMillis() + ttl);
+                synchronized (this) {
+                    Entry previous = entries.put(key, entry);
+                    bytes += size;
+                    if (previous != null) {
+                        bytes -= previous.size;
+                        if (!previous.path.equals(path)) {
+                            deleteLater(previous.path);
+                        }
+                    }
+                    evict(key);
+                }
+                resultHandler.handle(Future.succeededFuture(path));
+            });
+        });
+    }
+
+    /**
+     * Counts a request that joined a fetch already running for the same artifact instead of starting its own.
+     */
+    public synchronized void coalesced() {
+        coalesced++;
+    }
+
+    public synchronized JsonObject getMetrics() {
+        long requests = hits + revalidations + misses;
+        return new JsonObject()
+                .put("hits", hits)
+                .put("revalidations", revalidations)
+                .put("misses", misses)
+                .put("hitRatio", requests == 0 ? 0.0 : (double) (hits + revalidations) / requests)
+                .put("bytesSaved", bytesSaved)
+                .put("evictions", evictions)
+                .put("coalesced", coalesced)
+                .put("entries", entries.size())
+                .put("bytes", bytes)
+                .put("maxBytes", maxBytes);
+    }
+
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (!eldest.getKey().equals(keep)) {
+                iterator.remove();
+                bytes -= eldest.getValue().size;
+                evictions++;
+                deleteLater(eldest.getValue().path);
+            }
+        }
+    }
+
+    private void deleteLater(String path) {
+        vertx.setTimer(DELETE_DELAY, id -> {
+            synchronized (this) {
+                //the same version may have been downloaded again in the meantime
+                for (Entry entry : entries.values()) {
+                    if (entry.path.equals(path)) {
+                        return;
+                    }
+                }
+            }
+            vertx.fileSystem().delete(path, deleteReply -> {
+                if (deleteReply.failed()) {
+                    LOGGER.error("Evicted artifact could not be deleted.", deleteReply.cause());
+                }
+            });
+        });
+    }
+
+    private String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //every JVM ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class Entry {
+
+        private final String path;
+        private final long size;
+        private final String validatorHeader;
+        private final String version;
+        private volatile long expiresAt;
+
+        private Entry(String path, long size, String validatorHeader, String version, long expiresAt) {
+            this.path = path;
+            this.size = size;
+            this.validatorHeader = validatorHeader;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        /**
+         * The conditional request header to revalidate the entry with, or null if the adapter reported no version.
+         */
+        public String getValidatorHeader() {
+            return validatorHeader;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+    }
+}
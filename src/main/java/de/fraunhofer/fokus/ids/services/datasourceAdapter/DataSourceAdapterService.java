@@ -20,6 +20,9 @@ public interface DataSourceAdapterService {
     @Fluent
     DataSourceAdapterService getFile(String dataSourceType, JsonObject request, Handler<AsyncResult<String>> resultHandler);
 
+    @Fluent
+    DataSourceAdapterService getAdapter(String dataSourceType, Handler<AsyncResult<JsonObject>> resultHandler);
+
     @Fluent
     DataSourceAdapterService supported(String dataSourceType, Handler<AsyncResult<JsonObject>> resultHandler);
 
@@ -1,18 +1,29 @@
 package de.fraunhofer.fokus.ids.services.datasourceAdapter;
 
+import de.fraunhofer.fokus.ids.services.CircuitBreakers;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
-import io.vertx.core.file.AsyncFile;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.codec.BodyCodec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -28,6 +39,9 @@ public class DataSourceAdapterServiceImpl implements DataSourceAdapterService {
     private Vertx vertx;
     private String tempFileRootPath;
     private String configManagerApikey;
+    private CircuitBreakers breakers = CircuitBreakers.getInstance();
+    //requests waiting for a running fetch of the same distribution and file type
+    private Map<String, List<Handler<AsyncResult<String>>>> inFlight = new HashMap<>();
 
     public DataSourceAdapterServiceImpl(Vertx vertx, WebClient webClient, JsonObject config, String tempFileRootPath, Handler<AsyncResult<DataSourceAdapterService>> readyHandler) {
         this.webClient = webClient;
@@ -41,67 +55,217 @@ public class DataSourceAdapterServiceImpl implements DataSourceAdapterService {
     }
 
     private void post(int port, String host, String path, JsonObject payload, Handler<AsyncResult<JsonObject>> resultHandler) {
-        webClient
+        String endpoint = host + ":" + port;
+        breakers.<HttpResponse<Buffer>>execute(endpoint, promise -> webClient
                 .post(port, host, path)
-                .sendJsonObject(payload, ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
-                    } else {
-                        LOGGER.error(ar.cause());
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                    }
-                });
+                .timeout(breakers.getTimeout(endpoint))
+                .sendJsonObject(payload, promise), ar -> handleJsonResponse(ar, resultHandler));
+    }
+
+    /**
+     * Parses the body outside of the breaker command, a body that is no JSON would otherwise leave the command unfinished.
+     */
+    private void handleJsonResponse(AsyncResult<HttpResponse<Buffer>> ar, Handler<AsyncResult<JsonObject>> resultHandler) {
+        if (ar.failed()) {
+            LOGGER.error(ar.cause());
+            resultHandler.handle(Future.failedFuture(ar.cause()));
+            return;
+        }
+        try {
+            resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
+        } catch (DecodeException e) {
+            LOGGER.error(e);
+            resultHandler.handle(Future.failedFuture(e));
+        }
     }
 
     private void download(int port, String host, String path, JsonObject payload, Handler<AsyncResult<String>> resultHandler) {
+        download(port, host, path, payload, null, downloadReply -> {
+            if (downloadReply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(downloadReply.result().getString("path")));
+            } else {
+                resultHandler.handle(Future.failedFuture(downloadReply.cause()));
+            }
+        });
+    }
+
+    /**
+     * Downloads into a new file below tempFileRootPath. Replies with the path, the status code and the version headers
+     * of the adapter response. On a 304 the empty download is removed again and the reply carries no path.
+     * Only the exchange with the adapter runs through its circuit breaker, a status other than 200 or 304 counts as failure.
+     */
+    private void download(int port, String host, String path, JsonObject payload, ArtifactCache.Entry cached, Handler<AsyncResult<JsonObject>> resultHandler) {
         String fileName = tempFileRootPath+UUID.randomUUID().toString();
-        AsyncFile asyncFile = vertx.fileSystem().openBlocking(fileName, new OpenOptions());
-        webClient
-                .post(port, host, path)
-                .as(BodyCodec.pipe(asyncFile))
-                .sendJsonObject(payload, ar -> {
+        vertx.fileSystem().open(fileName, new OpenOptions(), fileReply -> {
+            if (fileReply.succeeded()) {
+                String endpoint = host + ":" + port;
+                boolean conditional = cached != null && cached.getValidatorHeader() != null;
+                breakers.<JsonObject>execute(endpoint, promise -> {
+                    HttpRequest<Void> request = webClient
+                            .post(port, host, path)
+                            .timeout(breakers.getTimeout(endpoint))
+                            .as(BodyCodec.pipe(fileReply.result()));
+                    if (conditional) {
+                        request.putHeader(cached.getValidatorHeader(), cached.getVersion());
+                    }
+                    request.sendJsonObject(payload, ar -> {
+                        if (ar.succeeded() && (ar.result().statusCode() == 200 || (conditional && ar.result().statusCode() == 304))) {
+                            promise.complete(new JsonObject()
+                                    .put("status", ar.result().statusCode())
+                                    .put("etag", ar.result().getHeader(HttpHeaders.ETAG.toString()))
+                                    .put("lastModified", ar.result().getHeader(HttpHeaders.LAST_MODIFIED.toString())));
+                        } else {
+                            promise.fail(ar.succeeded() ? new IllegalStateException("Adapter answered with status " + ar.result().statusCode() + ".") : ar.cause());
+                        }
+                    });
+                }, ar -> {
                     if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(fileName));
+                        if (ar.result().getInteger("status") == 304) {
+                            vertx.fileSystem().delete(fileName, deleteReply -> resultHandler.handle(Future.succeededFuture(ar.result())));
+                        } else {
+                            resultHandler.handle(Future.succeededFuture(ar.result().put("path", fileName)));
+                        }
                     } else {
                         LOGGER.error(ar.cause());
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
+                        vertx.fileSystem().delete(fileName, deleteReply -> resultHandler.handle(Future.failedFuture(ar.cause())));
                     }
                 });
+            } else {
+                LOGGER.error(fileReply.cause());
+                resultHandler.handle(Future.failedFuture(fileReply.cause()));
+            }
+        });
     }
 
+    /**
+     * Serves the file from the ArtifactCache while it is fresh. Otherwise the adapter is asked, conditionally if a stale
+     * entry carries a version, and a changed file replaces the cached one.
+     */
+    private void cachedDownload(int port, String host, String path, JsonObject payload, String key, Handler<AsyncResult<String>> resultHandler) {
+        ArtifactCache cache = ArtifactCache.getInstance();
+        ArtifactCache.Entry cached = cache.lookup(key);
+        if (cached != null && cached.isFresh()) {
+            resultHandler.handle(Future.succeededFuture(cached.getPath()));
+            return;
+        }
+        download(port, host, path, payload, cached, downloadReply -> {
+            if (downloadReply.failed()) {
+                resultHandler.handle(Future.failedFuture(downloadReply.cause()));
+            } else if (downloadReply.result().getInteger("status") == 304) {
+                cache.revalidated(key, cached);
+                resultHandler.handle(Future.succeededFuture(cached.getPath()));
+            } else {
+                JsonObject result = downloadReply.result();
+                String validatorHeader = null;
+                String version = String.valueOf(System.currentTimeMillis());
+                if (result.getString("etag") != null) {
+                    validatorHeader = HttpHeaders.IF_NONE_MATCH.toString();
+                    version = result.getString("etag");
+                } else if (result.getString("lastModified") != null) {
+                    validatorHeader = HttpHeaders.IF_MODIFIED_SINCE.toString();
+                    version = result.getString("lastModified");
+                }
+                cache.store(key, result.getString("path"), validatorHeader, version, resultHandler);
+            }
+        });
+    }
 
-    private void get(int port, String host, String path, Handler<AsyncResult<JsonObject>> resultHandler) {
+    /**
+     * The cache key of an adapter request, or null if it does not name a distribution and file type.
+     */
+    static String getCacheKey(JsonObject request) {
+        JsonObject distribution = request.getJsonObject("dataAsset");
+        if (distribution == null || distribution.getValue("id") == null || request.getValue("fileType") == null) {
+            return null;
+        }
+        return distribution.getValue("id") + ":" + request.getValue("fileType");
+    }
 
-        webClient
+    private void get(int port, String host, String path, Handler<AsyncResult<JsonObject>> resultHandler) {
+        String endpoint = host + ":" + port;
+        breakers.<HttpResponse<Buffer>>execute(endpoint, promise -> webClient
                 .get(port, host, path)
                 .bearerTokenAuthentication(configManagerApikey)
-                .send(ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
-                    } else {
-                        LOGGER.error(ar.cause());
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                    }
-                });
+                .timeout(breakers.getTimeout(endpoint))
+                .send(promise), ar -> handleJsonResponse(ar, resultHandler));
     }
 
     @Override
     public DataSourceAdapterService getFile(String dataSourceType, JsonObject request, Handler<AsyncResult<String>> resultHandler) {
+        String key = getCacheKey(request);
+        if (key == null) {
+            fetchFile(dataSourceType, request, null, resultHandler);
+            return this;
+        }
+        List<Handler<AsyncResult<String>>> waiting = inFlight.get(key);
+        if (waiting != null) {
+            ArtifactCache.getInstance().coalesced();
+            waiting.add(resultHandler);
+            return this;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(resultHandler);
+        inFlight.put(key, waiting);
+        fetchFile(dataSourceType, request, key, reply -> share(reply, inFlight.remove(key)));
+        return this;
+    }
+
+    private void fetchFile(String dataSourceType, JsonObject request, String key, Handler<AsyncResult<String>> resultHandler) {
         get(configManagerPort, configManagerHost,"/getAdapter/"+dataSourceType, reply -> {
             if(reply.succeeded()) {
-                download(reply.result().getInteger("port"), reply.result().getString("host"), "/getFile/", request, adapterReply -> {
+                Handler<AsyncResult<String>> adapterHandler = adapterReply -> {
                     if (adapterReply.succeeded()) {
                         resultHandler.handle(Future.succeededFuture(adapterReply.result()));
                     } else {
                         LOGGER.error(adapterReply.cause());
                         resultHandler.handle(Future.failedFuture(adapterReply.cause()));
                     }
-                });
+                };
+                if (ArtifactCache.getInstance().isEnabled() && key != null) {
+                    cachedDownload(reply.result().getInteger("port"), reply.result().getString("host"), "/getFile/", request, key, adapterHandler);
+                } else {
+                    download(reply.result().getInteger("port"), reply.result().getString("host"), "/getFile/", request, adapterHandler);
+                }
             } else {
                 LOGGER.error(reply.cause());
                 resultHandler.handle(Future.failedFuture(reply.cause()));
             }
         });
+    }
+
+    /**
+     * Hands the result of one fetch to all requests that waited for it. Cached files are shared as they are. A temporary
+     * download is deleted by whoever receives it, so every further waiter gets a hard link of its own to the same data,
+     * all created before the first waiter is answered. Callers of getFile need the complete file, so unlike the
+     * streamed payloads of AdapterResponseStreamer nothing is handed out before the fetch finished.
+     */
+    private void share(AsyncResult<String> reply, List<Handler<AsyncResult<String>>> waiting) {
+        if (reply.failed() || waiting.size() == 1 || ArtifactCache.getInstance().isCachedPath(reply.result())) {
+            waiting.forEach(handler -> handler.handle(reply));
+            return;
+        }
+        List<Future<String>> links = new ArrayList<>();
+        for (int i = 1; i < waiting.size(); i++) {
+            String link = tempFileRootPath+UUID.randomUUID().toString();
+            Promise<Void> linkPromise = Promise.promise();
+            vertx.fileSystem().link(link, reply.result(), linkPromise);
+            links.add(linkPromise.future().map(link));
+        }
+        CompositeFuture.join(new ArrayList<Future>(links)).onComplete(linked -> {
+            waiting.get(0).handle(reply);
+            for (int i = 1; i < waiting.size(); i++) {
+                Future<String> link = links.get(i - 1);
+                if (link.failed()) {
+                    LOGGER.error("Shared download could not be linked.", link.cause());
+                }
+                waiting.get(i).handle(link);
+            }
+        });
+    }
+
+    @Override
+    public DataSourceAdapterService getAdapter(String dataSourceType, Handler<AsyncResult<JsonObject>> resultHandler) {
+        get(configManagerPort, configManagerHost,"/getAdapter/"+dataSourceType, resultHandler);
         return this;
     }
 
@@ -7,6 +7,7 @@ import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.client.WebClient;
@@ -31,18 +32,21 @@ public class DataSourceAdapterServiceVerticle extends AbstractVerticle {
 
         retriever.getConfig(ar -> {
             if (ar.succeeded()) {
-                DataSourceAdapterService.create(vertx, webClient, ar.result().getJsonObject("CONFIG_MANAGER_CONFIG") ,ar.result().getString("REPOSITORY"),  ready -> {
-                    if (ready.succeeded()) {
-                        ServiceBinder binder = new ServiceBinder(vertx);
-                        binder
-                                .setAddress(Constants.DATASOURCEADAPTER_SERVICE)
-                                .register(DataSourceAdapterService.class, ready.result());
-                        LOGGER.info("Datasourceadapterservice successfully started.");
-                        startPromise.complete();
-                    } else {
-                        LOGGER.error(ready.cause());
-                        startPromise.fail(ready.cause());
-                    }
+                String repository = ar.result().getString("REPOSITORY");
+                ArtifactCache.getInstance().configure(vertx, repository, ar.result().getJsonObject("ARTIFACT_CACHE_CONFIG", new JsonObject()), cacheReady -> {
+                    DataSourceAdapterService.create(vertx, webClient, ar.result().getJsonObject("CONFIG_MANAGER_CONFIG") ,repository,  ready -> {
+                        if (ready.succeeded()) {
+                            ServiceBinder binder = new ServiceBinder(vertx);
+                            binder
+                                    .setAddress(Constants.DATASOURCEADAPTER_SERVICE)
+                                    .register(DataSourceAdapterService.class, ready.result());
+                            LOGGER.info("Datasourceadapterservice successfully started.");
+                            startPromise.complete();
+                        } else {
+                            LOGGER.error(ready.cause());
+                            startPromise.fail(ready.cause());
+                        }
+                    });
                 });
             } else {
                 LOGGER.error(ar.cause());
@@ -1,5 +1,6 @@
 package de.fraunhofer.fokus.ids.services.dockerService;
 
+import de.fraunhofer.fokus.ids.services.CircuitBreakers;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -8,6 +9,7 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -19,6 +21,7 @@ public class DockerServiceImpl implements DockerService {
     private int configManagerPort;
     private String configManagerHost;
     private String configManagerApikey;
+    private CircuitBreakers breakers = CircuitBreakers.getInstance();
 
     public DockerServiceImpl(WebClient webClient,JsonObject config, Handler<AsyncResult<DockerService>> readyHandler) {
         this.webClient = webClient;
@@ -29,41 +32,45 @@ public class DockerServiceImpl implements DockerService {
         readyHandler.handle(Future.succeededFuture(this));
     }
     private void post(int port, String host, String path, String payload, Handler<AsyncResult<JsonArray>> resultHandler) {
-        webClient
+        String endpoint = host + ":" + port;
+        breakers.<HttpResponse<Buffer>>execute(endpoint, promise -> webClient
                 .post(port, host, path)
-                .sendJson(payload, ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonArray()));
-                    } else {
-                        LOGGER.error(ar.cause());
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                    }
-                });
+                .timeout(breakers.getTimeout(endpoint))
+                .sendJson(payload, promise), ar -> {
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonArray()));
+            } else {
+                LOGGER.error(ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
     }
-    private void get(int port, String host, String path, Handler<AsyncResult<JsonArray>> resultHandler) {
-
-        webClient
+    private void get(int port, String host, String path, Handler<AsyncResult<HttpResponse<Buffer>>> resultHandler) {
+        String endpoint = host + ":" + port;
+        breakers.<HttpResponse<Buffer>>execute(endpoint, promise -> webClient
                 .get(port, host, path)
                 .bearerTokenAuthentication(configManagerApikey)
-                .send(ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonArray()));
-                    } else {
-                        LOGGER.error(ar.cause());
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                    }
-                });
+                .timeout(breakers.getTimeout(endpoint))
+                .send(promise), resultHandler);
+    }
+    private void postBuffer(int port, String host, String path, Buffer payload, Handler<AsyncResult<HttpResponse<Buffer>>> resultHandler) {
+        String endpoint = host + ":" + port;
+        breakers.<HttpResponse<Buffer>>execute(endpoint, promise -> webClient
+                .post(port, host, path)
+                .bearerTokenAuthentication(configManagerApikey)
+                .timeout(breakers.getTimeout(endpoint))
+                .sendBuffer(payload, promise), resultHandler);
     }
 
     @Override
     public DockerService getImages(Handler<AsyncResult<JsonArray>> resultHandler) {
-        get(configManagerPort, configManagerHost,"/images/",jsonArrayAsyncResult -> {
-            if (jsonArrayAsyncResult.succeeded()){
-                resultHandler.handle(Future.succeededFuture(jsonArrayAsyncResult.result()));
+        get(configManagerPort, configManagerHost,"/images/",imagesReply -> {
+            if (imagesReply.succeeded()){
+                resultHandler.handle(Future.succeededFuture(imagesReply.result().bodyAsJsonArray()));
             }
             else {
-                LOGGER.error(jsonArrayAsyncResult.cause());
-                resultHandler.handle(Future.failedFuture(jsonArrayAsyncResult.cause()));
+                LOGGER.error(imagesReply.cause());
+                resultHandler.handle(Future.failedFuture(imagesReply.cause()));
             }
         });
         return this;
@@ -71,80 +78,62 @@ public class DockerServiceImpl implements DockerService {
 
     @Override
     public DockerService startImages(String uuid, Handler<AsyncResult<JsonObject>> resultHandler) {
-        webClient
-                .post(configManagerPort, configManagerHost, "/images/start/")
-                .bearerTokenAuthentication(configManagerApikey)
-                .sendBuffer(Buffer.buffer(uuid), ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
-                    } else {
-                        LOGGER.error(ar.cause());
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                    }
-                });
+        postBuffer(configManagerPort, configManagerHost, "/images/start/", Buffer.buffer(uuid), ar -> {
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
+            } else {
+                LOGGER.error(ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
         return this;
     }
 
     @Override
     public DockerService stopImages(String uuid, Handler<AsyncResult<JsonObject>> resultHandler) {
-        webClient
-                .post(configManagerPort, configManagerHost, "/images/stop/")
-                .bearerTokenAuthentication(configManagerApikey)
-                .sendBuffer(Buffer.buffer(uuid), ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
-                    } else {
-                        LOGGER.error(ar.cause());
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                    }
-                });
+        postBuffer(configManagerPort, configManagerHost, "/images/stop/", Buffer.buffer(uuid), ar -> {
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
+            } else {
+                LOGGER.error(ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
         return this;
     }
 
     @Override
     public DockerService getDataAssetFormSchema(String dataSourceType, Handler<AsyncResult<JsonObject>> resultHandler) {
-        webClient
-                .get(configManagerPort, configManagerHost, "/getAdapter/"+dataSourceType)
-                .bearerTokenAuthentication(configManagerApikey)
-                .send(reply -> {
-                    if(reply.succeeded()) {
-                        webClient
-                                .get(reply.result().bodyAsJsonObject().getInteger("port"), reply.result().bodyAsJsonObject().getString("host"), "/getDataAssetFormSchema/")
-                                .bearerTokenAuthentication(configManagerApikey)
-                                .send(adapterReply -> {
-                                    if (adapterReply.succeeded()) {
-                                        resultHandler.handle(Future.succeededFuture(adapterReply.result().bodyAsJsonObject()));
-                                    } else {
-                                        LOGGER.error(adapterReply.cause());
-                                        resultHandler.handle(Future.failedFuture(adapterReply.cause()));
-                                    }
-                                });
+        get(configManagerPort, configManagerHost, "/getAdapter/"+dataSourceType, reply -> {
+            if(reply.succeeded()) {
+                get(reply.result().bodyAsJsonObject().getInteger("port"), reply.result().bodyAsJsonObject().getString("host"), "/getDataAssetFormSchema/", adapterReply -> {
+                    if (adapterReply.succeeded()) {
+                        resultHandler.handle(Future.succeededFuture(adapterReply.result().bodyAsJsonObject()));
                     } else {
-                        LOGGER.error(reply.cause());
-                        resultHandler.handle(Future.failedFuture(reply.cause()));
+                        LOGGER.error(adapterReply.cause());
+                        resultHandler.handle(Future.failedFuture(adapterReply.cause()));
                     }
                 });
+            } else {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
         return this;
     }
 
     @Override
     public DockerService getDataSourceFormSchema(String dataSourceType,Handler<AsyncResult<JsonObject>> resultHandler) {
-        webClient
-                .get(configManagerPort, configManagerHost, "/getAdapter/"+dataSourceType)
-                .bearerTokenAuthentication(configManagerApikey)
-                .send(reply -> {
+        get(configManagerPort, configManagerHost, "/getAdapter/"+dataSourceType, reply -> {
             if(reply.succeeded()) {
-                webClient
-                        .get(reply.result().bodyAsJsonObject().getInteger("port"), reply.result().bodyAsJsonObject().getString("host"), "/getDataSourceFormSchema/")
-                        .bearerTokenAuthentication(configManagerApikey)
-                        .send(adapterReply -> {
-                            if (adapterReply.succeeded()) {
-                                resultHandler.handle(Future.succeededFuture(adapterReply.result().bodyAsJsonObject()));
-                            } else {
-                                LOGGER.error(adapterReply.cause());
-                                resultHandler.handle(Future.failedFuture(adapterReply.cause()));
-                            }
-                        });
+                get(reply.result().bodyAsJsonObject().getInteger("port"), reply.result().bodyAsJsonObject().getString("host"), "/getDataSourceFormSchema/", adapterReply -> {
+                    if (adapterReply.succeeded()) {
+                        resultHandler.handle(Future.succeededFuture(adapterReply.result().bodyAsJsonObject()));
+                    } else {
+                        LOGGER.error(adapterReply.cause());
+                        resultHandler.handle(Future.failedFuture(adapterReply.cause()));
+                    }
+                });
             } else {
                 LOGGER.error(reply.cause());
                 resultHandler.handle(Future.failedFuture(reply.cause()));
@@ -155,17 +144,14 @@ public class DockerServiceImpl implements DockerService {
 
     @Override
     public DockerService listAdapters(Handler<AsyncResult<JsonArray>> resultHandler) {
-        webClient
-                .get(configManagerPort, configManagerHost, "/listAdapters/")
-                .bearerTokenAuthentication(configManagerApikey)
-                .send(ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonArray()));
-                    } else {
-                        LOGGER.error(ar.cause());
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                    }
-                });
+        get(configManagerPort, configManagerHost, "/listAdapters/", ar -> {
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonArray()));
+            } else {
+                LOGGER.error(ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
         return this;
     }
 }